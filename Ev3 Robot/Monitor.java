@@ -1,119 +1,171 @@
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
-import lejos.hardware.Battery;
-import lejos.hardware.ev3.LocalEV3;
-import lejos.hardware.lcd.Font;
-import lejos.hardware.lcd.GraphicsLCD;
-
-/**
- * Monitor class tied in to the LCD screen of the robot.
- * Ran on a daemon thread.
- * @author group 16
- */
-public class Monitor extends Thread {
-
-    private final GraphicsLCD lcd = LocalEV3.get().getGraphicsLCD();
-    private final long PRINT_TIME = 4000;
-    
-    private final String DEFAULT_TEXT = "GROUP 16 - RESCUE";
-    private String text 			  = DEFAULT_TEXT;
-    private String log				  = "(...)";
-    
-    private boolean suppress;
-    private int delay;
-    public Robot robot;
-
-    public Monitor(Robot r, int d) {
-        this.setDaemon(true);
-
-        this.delay = d;
-        this.robot = r;
-        this.suppress = false;
-    }
-    
-    /*
-     * Returns the current clock-time as a string.
-     */
-    private String getCurrentTimeStamp() {
-        return new SimpleDateFormat("HH:mm:ss.SSS").format(new Date());
-    }
-    
-    /**
-     * Method that temporarily suppresses the lcd screen to display a message of text.
-     * @param txt
-     */
-    public void print(String txt) {
-        suppress = true;
-
-        lcd.clear();
-        lcd.setFont(Font.getSmallFont());
-        lcd.drawString(txt, 0, lcd.getHeight() / 2, 0);
-
-        try {
-            sleep(PRINT_TIME);
-            suppress = false;
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-    }
-    
-    /**
-     * Sets the title text of the LCD screen
-     * @param text
-     */
-    public void setText(String text) {
-        this.text = text;
-    }
-    
-    /**
-     * Sets the log text of the LCD screen
-     * @param text
-     */
-    public void setLog(String text) {
-        this.log = text;
-    }
-    
-    /**
-     * Clears the lcd screen
-     */
-    public void clearLcd() {
-        System.out.flush();  
-        System.err.flush();
-        lcd.clear();
-    }
-    
-    /**
-     * Thread run method. 
-     * Ran each lcd frame.
-     */
-    public void run() {
-        while (true) {
-            if (suppress)
-                continue;
-
-            lcd.clear();
-            lcd.setFont(Font.getDefaultFont());
-            lcd.drawString(text, 0, lcd.getHeight() / 2, 0);
-            
-            if (text.equals(DEFAULT_TEXT)) {
-                lcd.setFont(Font.getSmallFont());
-                lcd.drawString(getCurrentTimeStamp(), lcd.getWidth()-30, 2, 0);
-                lcd.drawString(Battery.getBatteryCurrent() + "%", 5, 2, 0);
-                lcd.drawString(	"H: "   + robot.getHeading() 
-                            + " | A: "  + robot.getAngle() 
-                            + " | #i: " + robot.getNumInstructions() 
-                            + " | "
-                , 0, lcd.getHeight() / 2 + 20, 0);
-                lcd.drawString( "last_cmd: " + robot.getLastInstruction(), 0, lcd.getHeight() / 2 + 32, 0);
-                lcd.drawString( "log: " + log, 0, lcd.getHeight() / 2 + 42, 0);
-            }
-
-            try {
-                sleep(delay);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-    }
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import lejos.hardware.Battery;
+import lejos.hardware.ev3.LocalEV3;
+import lejos.hardware.lcd.Font;
+import lejos.hardware.lcd.GraphicsLCD;
+
+/**
+ * Monitor class tied in to the LCD screen of the robot.
+ * Ran on a daemon thread.
+ * @author group 16
+ */
+public class Monitor extends Thread {
+
+    private final GraphicsLCD lcd = LocalEV3.get().getGraphicsLCD();
+    private final long PRINT_TIME = 4000;
+    
+    private final String DEFAULT_TEXT = "GROUP 16 - RESCUE";
+    private String text 			  = DEFAULT_TEXT;
+    private String log				  = "(...)";
+    
+    // message shown in place of the screen until printUntil (drawn by the monitor thread)
+    private final Object printLock = new Object();
+    private String printPrefix;
+    private Object printMessage;
+    private long printUntil;
+
+    private int delay;
+    public Robot robot;
+
+    public Monitor(Robot r, int d) {
+        this.setDaemon(true);
+
+        this.delay = d;
+        this.robot = r;
+    }
+    
+    /*
+     * Returns the current clock-time as a string.
+     */
+    private String getCurrentTimeStamp() {
+        return new SimpleDateFormat("HH:mm:ss.SSS").format(new Date());
+    }
+    
+    /**
+     * Method that temporarily suppresses the lcd screen to display a message of text.
+     * Blocks for PRINT_TIME while the message is up (the black line correction relies on it to
+     * let the robot settle).
+     * @param txt
+     */
+    public void print(String txt) {
+        print("", txt);
+    }
+
+    /**
+     * Same as print(String), but the text (prefix + message) is only put together by the monitor
+     * thread when it draws it, so the caller builds no string.
+     * @param prefix
+     * @param message
+     */
+    public void print(String prefix, Object message) {
+        echo(prefix, message);
+
+        try {
+            sleep(PRINT_TIME);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Same as print(String, Object), but returns at once: the monitor thread draws the message,
+     * which stays up for PRINT_TIME (or until the next one).
+     * @param prefix
+     * @param message
+     */
+    public void echo(String prefix, Object message) {
+        synchronized (printLock) {
+            printPrefix = prefix;
+            printMessage = message;
+            printUntil = System.currentTimeMillis() + PRINT_TIME;
+            printLock.notify();
+        }
+    }
+    
+    /**
+     * Sets the title text of the LCD screen
+     * @param text
+     */
+    public void setText(String text) {
+        this.text = text;
+    }
+    
+    /**
+     * Sets the log text of the LCD screen
+     * @param text
+     */
+    public void setLog(String text) {
+        this.log = text;
+    }
+    
+    /**
+     * Clears the lcd screen
+     */
+    public void clearLcd() {
+        System.out.flush();  
+        System.err.flush();
+        lcd.clear();
+    }
+    
+    /**
+     * Thread run method. 
+     * Ran each lcd frame.
+     */
+    public void run() {
+        while (true) {
+            String prefix;
+            Object message;
+            long until;
+            synchronized (printLock) {
+                prefix = printPrefix;
+                message = printMessage;
+                until = printUntil;
+            }
+
+            lcd.clear();
+            long now = System.currentTimeMillis();
+            if (now < until) {
+                lcd.setFont(Font.getSmallFont());
+                lcd.drawString(prefix + message, 0, lcd.getHeight() / 2, 0);
+                pause(Math.min(delay, until - now), until);
+                continue;
+            }
+
+            lcd.setFont(Font.getDefaultFont());
+            lcd.drawString(text, 0, lcd.getHeight() / 2, 0);
+            
+            if (text.equals(DEFAULT_TEXT)) {
+                lcd.setFont(Font.getSmallFont());
+                lcd.drawString(getCurrentTimeStamp(), lcd.getWidth()-30, 2, 0);
+                lcd.drawString(Battery.getBatteryCurrent() + "%", 5, 2, 0);
+                lcd.drawString(	"H: "   + robot.getHeading() 
+                            + " | A: "  + robot.getAngle() 
+                            + " | #i: " + robot.getNumInstructions() 
+                            + " | "
+                , 0, lcd.getHeight() / 2 + 20, 0);
+                lcd.drawString( "last_cmd: " + robot.getLastInstruction(), 0, lcd.getHeight() / 2 + 32, 0);
+                lcd.drawString( "log: " + log, 0, lcd.getHeight() / 2 + 42, 0);
+            }
+
+            pause(delay, until);
+        }
+    }
+
+    /**
+     * Waits for the next frame, or for a message to print.
+     * @param time
+     * @param until End of the message drawn (a different one means a new message came meanwhile)
+     */
+    private void pause(long time, long until) {
+        synchronized (printLock) {
+            try {
+                if (printUntil == until)
+                    printLock.wait(time);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,756 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary wire protocol between the Jason environment (Client) and the Ev3 brick (RobotController).
+ * The same class is shipped on both ends.
+ *
+ * Connection: the client sends HELLO (magic, version, session to resume or 0, role) and the server
+ * answers with magic, version, the session id and the sequence number of the last request it accepted
+ * in that session. There is one CONTROL session (the planner, whose commands drive the robot) and any
+ * number of MONITOR sessions (read only queries, answered without waiting for the robot to move);
+ * a TELEMETRY HELLO is followed by the period wanted and switches the connection to the telemetry stream.
+ * A client that sends nothing is an old client and gets the legacy object streams instead.
+ *
+ * Frames: [int length][body]. A request body is [int id][byte count] followed by count commands, each
+ * [byte opcode][argument] where the argument depends on the opcode (float, UTF string or none).
+ * A reply body is [byte REPLY][int id][byte count] followed by count typed values [byte tag][value]; it
+ * carries the id of the request it answers. While a ROUTE runs, the brick also sends progress frames
+ * [byte PROGRESS][int id][int step] after every step (MOVE) of the route. Requests may be pipelined, the brick answers them in order.
+ * Ids are the sequence numbers of the session: after a reconnect the client sends again what is
+ * still unanswered and the brick answers the requests it already executed from its reply cache
+ * instead of executing them twice.
+ *
+ * Telemetry is pushed on a second connection: the subscriber sends HELLO and the period it wants
+ * (int, ms), the brick answers HELLO and then streams one telemetry frame per period.
+ * @author group 16
+ */
+public class Protocol {
+    public static final int MAGIC   = 0x47313642; // "G16B"
+    public static final int VERSION = 5;
+
+    // Opcodes (index into NAMES)
+    public static final byte MOVE         = 1;  // float distance (cm)
+    public static final byte ROTATE       = 2;  // float angle (deg)
+    public static final byte BEEP         = 3;
+    public static final byte PRINT        = 4;  // text
+    public static final byte RCOLOR       = 5;
+    public static final byte LCOLOR       = 6;
+    public static final byte DISTANCE     = 7;
+    public static final byte BLCORRECTION = 8;
+    public static final byte CENTERING    = 9;  // float angle (deg)
+    public static final byte DBGCS        = 10;
+    public static final byte PLAYSIREN    = 11;
+    public static final byte LAPCOMPLETED = 12;
+    public static final byte EXIT         = 13;
+    public static final byte ROUTE        = 14; // program (commands, one step per MOVE)
+    public static final byte STATUS       = 15;
+
+    // Legacy text names of the opcodes (cmd%arg grammar)
+    private static final String[] NAMES = { null, "MOVE", "ROTATE", "BEEP", "PRINT", "RCOLOR", "LCOLOR", "DISTANCE",
+            "BLCORRECTION", "CENTERING", "DBGCS", "PLAYSIREN", "LAPCOMPLETED", "EXIT", "ROUTE", "STATUS" };
+    public static final int OPCODES = 16; // opcodes are 1 .. OPCODES - 1 (size of a table indexed by opcode)
+    public static final int MAX_COMMANDS = 255;    // commands in a request, values in a reply (count is a byte)
+    public static final int MAX_PROGRAM  = 0xFFFF; // commands in a ROUTE program (count is a short)
+
+    // Reply value tags
+    public static final byte NONE  = 0;
+    public static final byte TEXT  = 1;
+    public static final byte FLOAT = 2;
+    public static final byte PROGRAM = 3; // argument only
+
+    // Session roles
+    public static final byte CONTROL   = 0;
+    public static final byte MONITOR   = 1;
+    public static final byte TELEMETRY = 2;
+    public static final int SESSION_HELLO_SIZE = 4 + 1 + 8 + 1;
+
+    // Kinds of the frames sent by the brick
+    public static final byte REPLY    = 0;
+    public static final byte PROGRESS = 1;
+
+    // Largest frame accepted (guards against garbage lengths)
+    public static final int MAX_FRAME = 64 * 1024;
+
+    // Body size of a telemetry frame
+    public static final int TELEMETRY_SIZE = 8 + 3 * 4 + 6 * 4 + 4 * 4 + 1;
+
+    /**
+     * One command (opcode and its argument).
+     * @author group 16
+     */
+    public static class Command {
+        public final byte opcode;
+        public final float number;
+        public final String text;
+        public final List<Command> program;
+
+        /**
+         * @throws IllegalArgumentException if the opcode is unknown
+         */
+        public Command(byte opcode, float number, String text, List<Command> program) {
+            if (!isOpcode(opcode))
+                throw new IllegalArgumentException("Unknown opcode " + opcode);
+            this.opcode = opcode;
+            this.number = number;
+            this.text = text;
+            this.program = program;
+        }
+
+        public Command(byte opcode, float number, String text) {
+            this(opcode, number, text, null);
+        }
+
+        // commands without argument are immutable, one instance per opcode is enough
+        private static final Command[] SIMPLE = new Command[OPCODES];
+        static {
+            for (byte op = 1; op < OPCODES; op++)
+                SIMPLE[op] = new Command(op, 0, null);
+        }
+
+        public static Command of(byte opcode) {
+            if (!isOpcode(opcode))
+                throw new IllegalArgumentException("Unknown opcode " + opcode);
+            return SIMPLE[opcode];
+        }
+
+        public static Command of(byte opcode, float number) {
+            return new Command(opcode, number, null);
+        }
+
+        public static Command of(byte opcode, String text) {
+            return new Command(opcode, 0, text);
+        }
+
+        public static Command of(byte opcode, List<Command> program) {
+            return new Command(opcode, 0, null, program);
+        }
+
+        /**
+         * Parses a legacy text command (cmd%arg1,arg2,...) in place: the name and the argument are
+         * read where they are, without cutting the text into strings.
+         * @param cmd
+         * @return Command, or null if the command is unknown
+         */
+        public static Command parse(CharSequence cmd) {
+            int length = cmd.length();
+            int separator = 0;
+            while (separator < length && cmd.charAt(separator) != '%')
+                separator++;
+            int start = Math.min(separator + 1, length);
+
+            byte opcode = opcodeOf(cmd, 0, separator);
+            if (opcode == -1)
+                return null;
+
+            switch (argumentOf(opcode)) {
+            case FLOAT:
+                int end = start;
+                while (end < length && cmd.charAt(end) != ',')
+                    end++;
+                return of(opcode, parseNumber(cmd, start, end));
+            case TEXT:
+                return of(opcode, cmd.subSequence(start, length).toString());
+            case PROGRAM: // not expressible as text
+                return of(opcode, new ArrayList<Command>());
+            default:
+                return of(opcode);
+            }
+        }
+
+        /**
+         * Returns the legacy text form of the command.
+         */
+        @Override
+        public String toString() {
+            if (!isOpcode(opcode))
+                return "op" + opcode + "%";
+
+            String name = NAMES[opcode].toLowerCase();
+            switch (argumentOf(opcode)) {
+            case FLOAT:
+                return name + "%" + number;
+            case TEXT:
+                return name + "%" + text;
+            case PROGRAM:
+                return name + "%" + program;
+            default:
+                return name + "%";
+            }
+        }
+    }
+
+    /**
+     * A batch of commands and the id its reply will carry.
+     * @author group 16
+     */
+    public static class Request {
+        public final int id;
+        public final List<Command> commands;
+
+        public Request(int id, List<Command> commands) {
+            this.id = id;
+            this.commands = commands;
+        }
+    }
+
+    /**
+     * A frame from the brick: the values returned for a request (one per command),
+     * or the progress of the route a request runs.
+     * @author group 16
+     */
+    public static class Reply {
+        public final int id;
+        public final Object[] values;
+        public final int step; // PROGRESS: route step completed, -1 for a reply
+
+        public Reply(int id, Object[] values) {
+            this.id = id;
+            this.values = values;
+            this.step = -1;
+        }
+
+        public Reply(int id, int step) {
+            this.id = id;
+            this.values = null;
+            this.step = step;
+        }
+
+        public boolean isProgress() {
+            return step != -1;
+        }
+    }
+
+    /**
+     * One telemetry sample of the robot.
+     * @author group 16
+     */
+    public static class Telemetry {
+        public long time;         // ms since the robot started
+        public float angle;       // gyro angle (deg)
+        public float heading;     // heading the robot should have (deg)
+        public float distance;    // ultrasonic distance (m)
+        public final float[] right = new float[3]; // right color sensor (RGB)
+        public final float[] left  = new float[3]; // left color sensor (RGB)
+        public int leftTacho;     // left motor tacho count (deg)
+        public int rightTacho;    // right motor tacho count (deg)
+        public int leftSpeed;     // left motor speed (deg/s)
+        public int rightSpeed;    // right motor speed (deg/s)
+        public boolean moving;    // pilot is moving
+        public boolean stalled;   // a drive motor is stalled
+
+        @Override
+        public String toString() {
+            return "t:" + time + " A:" + angle + " H:" + heading + " D:" + distance
+                    + " R:" + right[0] + "," + right[1] + "," + right[2]
+                    + " L:" + left[0] + "," + left[1] + "," + left[2]
+                    + " T:" + leftTacho + "," + rightTacho + " S:" + leftSpeed + "," + rightSpeed
+                    + (moving ? " moving" : "") + (stalled ? " stalled" : "");
+        }
+    }
+
+    /**
+     * Returns the opcode of a legacy command name, -1 if unknown.
+     * @param name
+     * @return opcode
+     */
+    public static byte opcodeOf(String name) {
+        return opcodeOf(name, 0, name.length());
+    }
+
+    /**
+     * Returns the opcode of the legacy command name found between start and end (case insensitive),
+     * -1 if unknown.
+     * @param text
+     * @param start
+     * @param end
+     * @return opcode
+     */
+    public static byte opcodeOf(CharSequence text, int start, int end) {
+        search:
+        for (byte op = 1; op < NAMES.length; op++) {
+            String name = NAMES[op];
+            if (name.length() != end - start)
+                continue;
+            for (int i = 0; i < name.length(); i++)
+                if (Character.toUpperCase(text.charAt(start + i)) != name.charAt(i))
+                    continue search;
+            return op;
+        }
+        return -1;
+    }
+
+    private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    /**
+     * Parses the decimal number ([-+]digits[.digits]) found between start and end, 0 if empty.
+     * Plain decimals (what the legacy clients send) are parsed in place; anything else
+     * (exponent, NaN...) goes through Float.parseFloat.
+     * @param text
+     * @param start
+     * @param end
+     * @return number
+     */
+    public static float parseNumber(CharSequence text, int start, int end) {
+        if (start == end)
+            return 0;
+
+        int i = start;
+        boolean negative = false;
+        if (text.charAt(i) == '-' || text.charAt(i) == '+')
+            negative = text.charAt(i++) == '-';
+
+        long mantissa = 0;
+        int scale = 0; // decimal digits of the mantissa after the point (negative: digits dropped before it)
+        boolean point = false;
+        boolean digits = false;
+
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits = true;
+                if (mantissa < 100000000000000L) { // exact in a double
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (point)
+                        scale++;
+                } else if (!point) {
+                    scale--;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                return Float.parseFloat(text.subSequence(start, end).toString());
+            }
+        }
+
+        if (!digits || scale >= POWERS_OF_TEN.length || -scale >= POWERS_OF_TEN.length)
+            return Float.parseFloat(text.subSequence(start, end).toString());
+
+        double value = scale >= 0 ? mantissa / POWERS_OF_TEN[scale] : mantissa * POWERS_OF_TEN[-scale];
+        return (float) (negative ? -value : value);
+    }
+
+    /**
+     * Returns whether an opcode is known.
+     * @param opcode
+     */
+    public static boolean isOpcode(byte opcode) {
+        return opcode > 0 && opcode < OPCODES;
+    }
+
+    /**
+     * Returns the type of the argument an opcode takes (NONE, TEXT or FLOAT).
+     * @param opcode
+     * @return tag
+     */
+    public static byte argumentOf(byte opcode) {
+        switch (opcode) {
+        case MOVE:
+        case ROTATE:
+        case CENTERING:
+            return FLOAT;
+        case PRINT:
+            return TEXT;
+        case ROUTE:
+            return PROGRAM;
+        default:
+            return NONE;
+        }
+    }
+
+    /************************/
+    //      Handshake       //
+    /************************/
+
+    public static void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.flush();
+    }
+
+    /**
+     * Writes the HELLO of a command connection.
+     * @param out
+     * @param session Session to resume, 0 for a new one
+     * @param role CONTROL or MONITOR
+     * @throws IOException
+     */
+    public static void writeSessionHello(DataOutputStream out, long session, byte role) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(session);
+        out.writeByte(role);
+        out.flush();
+    }
+
+    /**
+     * Returns whether a command only reads the state of the robot (a MONITOR session may send it).
+     * @param opcode
+     */
+    public static boolean isQuery(byte opcode) {
+        return opcode == DISTANCE || opcode == STATUS || opcode == DBGCS;
+    }
+
+    /**
+     * Writes the brick's answer to the HELLO of a command connection.
+     * @param out
+     * @param session Session id (the one resumed, or a new one)
+     * @param lastSequence Sequence number of the last request executed in the session
+     * @throws IOException
+     */
+    public static void writeSessionAccept(DataOutputStream out, long session, int lastSequence) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(session);
+        out.writeInt(lastSequence);
+        out.flush();
+    }
+
+    /**
+     * Reads the rest of a HELLO after its magic number.
+     * @param in
+     * @return protocol version of the other end
+     * @throws IOException
+     */
+    public static int readHelloVersion(DataInputStream in) throws IOException {
+        return in.readUnsignedByte();
+    }
+
+    /************************/
+    //        Frames        //
+    /************************/
+
+    private static void writeFrame(DataOutputStream out, ByteArrayOutputStream body) throws IOException {
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+    }
+
+    private static DataInputStream readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Invalid frame length " + length);
+
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return new DataInputStream(new java.io.ByteArrayInputStream(body));
+    }
+
+    /**
+     * Writes a telemetry frame.
+     * @param out
+     * @param telemetry
+     * @throws IOException
+     */
+    public static void writeTelemetry(DataOutputStream out, Telemetry telemetry) throws IOException {
+        out.writeInt(TELEMETRY_SIZE);
+        out.writeLong(telemetry.time);
+        out.writeFloat(telemetry.angle);
+        out.writeFloat(telemetry.heading);
+        out.writeFloat(telemetry.distance);
+        for (int i = 0; i < 3; i++)
+            out.writeFloat(telemetry.right[i]);
+        for (int i = 0; i < 3; i++)
+            out.writeFloat(telemetry.left[i]);
+        out.writeInt(telemetry.leftTacho);
+        out.writeInt(telemetry.rightTacho);
+        out.writeInt(telemetry.leftSpeed);
+        out.writeInt(telemetry.rightSpeed);
+        out.writeByte((telemetry.moving ? 1 : 0) | (telemetry.stalled ? 2 : 0));
+        out.flush();
+    }
+
+    /**
+     * Reads a telemetry frame into a sample.
+     * @param in
+     * @param telemetry Sample to fill
+     * @throws IOException
+     */
+    public static void readTelemetry(DataInputStream in, Telemetry telemetry) throws IOException {
+        if (in.readInt() != TELEMETRY_SIZE)
+            throw new IOException("Invalid telemetry frame");
+
+        telemetry.time = in.readLong();
+        telemetry.angle = in.readFloat();
+        telemetry.heading = in.readFloat();
+        telemetry.distance = in.readFloat();
+        for (int i = 0; i < 3; i++)
+            telemetry.right[i] = in.readFloat();
+        for (int i = 0; i < 3; i++)
+            telemetry.left[i] = in.readFloat();
+        telemetry.leftTacho = in.readInt();
+        telemetry.rightTacho = in.readInt();
+        telemetry.leftSpeed = in.readInt();
+        telemetry.rightSpeed = in.readInt();
+        int flags = in.readUnsignedByte();
+        telemetry.moving = (flags & 1) != 0;
+        telemetry.stalled = (flags & 2) != 0;
+    }
+
+    /**
+     * Checks that a request can be sent: its counts fit their fields and its frame fits MAX_FRAME
+     * (a reader drops the connection on a bigger one, so a long ROUTE has to be split).
+     * @param commands
+     * @throws IllegalArgumentException if it can't be sent
+     */
+    public static void checkRequest(List<Command> commands) {
+        requestSize(commands);
+    }
+
+    private static int requestSize(List<Command> commands) {
+        if (commands.size() > MAX_COMMANDS)
+            throw new IllegalArgumentException(commands.size() + " commands in one request, at most " + MAX_COMMANDS);
+
+        int size = 5; // id + count
+        for (Command command : commands)
+            size += sizeOf(command);
+        if (size > MAX_FRAME)
+            throw new IllegalArgumentException("Request of " + size + " bytes, a frame is at most " + MAX_FRAME);
+        return size;
+    }
+
+    private static int sizeOf(Command command) {
+        switch (argumentOf(command.opcode)) {
+        case FLOAT:
+            return 1 + 4;
+        case TEXT:
+            int size = 1 + 2; // modified UTF-8, see writeUTF
+            for (int i = 0; i < command.text.length(); i++) {
+                char c = command.text.charAt(i);
+                size += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+            }
+            return size;
+        case PROGRAM:
+            if (command.program.size() > MAX_PROGRAM)
+                throw new IllegalArgumentException(command.program.size() + " commands in one program, at most " + MAX_PROGRAM);
+            size = 1 + 2;
+            for (Command step : command.program)
+                size += sizeOf(step);
+            return size;
+        default:
+            return 1;
+        }
+    }
+
+    /**
+     * Writes a request.
+     * @param out
+     * @param id
+     * @param commands
+     * @throws IOException
+     * @throws IllegalArgumentException if the request can't be sent, see checkRequest()
+     */
+    public static void writeRequest(DataOutputStream out, int id, List<Command> commands) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(requestSize(commands));
+        DataOutputStream body = new DataOutputStream(bytes);
+
+        body.writeInt(id);
+        body.writeByte(commands.size());
+        for (Command command : commands)
+            writeCommand(body, command);
+
+        writeFrame(out, bytes);
+    }
+
+    private static void writeCommand(DataOutputStream body, Command command) throws IOException {
+        body.writeByte(command.opcode);
+        switch (argumentOf(command.opcode)) {
+        case FLOAT:
+            body.writeFloat(command.number);
+            break;
+        case TEXT:
+            body.writeUTF(command.text);
+            break;
+        case PROGRAM:
+            body.writeShort(command.program.size());
+            for (Command step : command.program)
+                writeCommand(body, step);
+            break;
+        }
+    }
+
+    private static Command readCommand(DataInputStream body) throws IOException {
+        byte opcode = body.readByte();
+        if (!isOpcode(opcode))
+            throw new IOException("Unknown opcode " + opcode);
+        switch (argumentOf(opcode)) {
+        case FLOAT:
+            return Command.of(opcode, body.readFloat());
+        case TEXT:
+            return Command.of(opcode, body.readUTF());
+        case PROGRAM:
+            int size = body.readUnsignedShort();
+            List<Command> program = new ArrayList<Command>(size);
+            for (int i = 0; i < size; i++)
+                program.add(readCommand(body));
+            return Command.of(opcode, program);
+        default:
+            return Command.of(opcode);
+        }
+    }
+
+    public static Request readRequest(DataInputStream in) throws IOException {
+        DataInputStream body = readFrame(in);
+        int id = body.readInt();
+        int count = body.readUnsignedByte();
+        List<Command> commands = new ArrayList<Command>(count);
+
+        for (int i = 0; i < count; i++)
+            commands.add(readCommand(body));
+
+        return new Request(id, commands);
+    }
+
+    /**
+     * Reads a request frame straight from a buffer holding all of it (the brick's selector decodes
+     * the frames where they were received, without copying them).
+     * @param in Buffer positioned on the frame, left after it
+     * @return Request
+     * @throws IOException if the frame is malformed
+     */
+    public static Request readRequest(ByteBuffer in) throws IOException {
+        int length = in.getInt();
+        if (length < 0 || length > MAX_FRAME || length > in.remaining())
+            throw new IOException("Invalid frame length " + length);
+
+        int end = in.position() + length;
+        int limit = in.limit();
+        in.limit(end);
+        try {
+            int id = in.getInt();
+            int count = in.get() & 0xFF;
+            List<Command> commands = new ArrayList<Command>(count);
+
+            for (int i = 0; i < count; i++)
+                commands.add(readCommand(in));
+
+            return new Request(id, commands);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated frame");
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+    }
+
+    private static Command readCommand(ByteBuffer body) throws IOException {
+        byte opcode = body.get();
+        if (!isOpcode(opcode))
+            throw new IOException("Unknown opcode " + opcode);
+        switch (argumentOf(opcode)) {
+        case FLOAT:
+            return Command.of(opcode, body.getFloat());
+        case TEXT:
+            return Command.of(opcode, readUTF(body));
+        case PROGRAM:
+            int size = body.getShort() & 0xFFFF;
+            List<Command> program = new ArrayList<Command>(size);
+            for (int i = 0; i < size; i++)
+                program.add(readCommand(body));
+            return Command.of(opcode, program);
+        default:
+            return Command.of(opcode);
+        }
+    }
+
+    /**
+     * Reads a string written by DataOutputStream.writeUTF (modified UTF-8).
+     */
+    private static String readUTF(ByteBuffer body) {
+        int end = (body.getShort() & 0xFFFF) + body.position();
+        char[] chars = new char[end - body.position()];
+        int n = 0;
+
+        while (body.position() < end) {
+            int a = body.get() & 0xFF;
+            if (a < 0x80)
+                chars[n++] = (char) a;
+            else if ((a & 0xE0) == 0xC0)
+                chars[n++] = (char) (((a & 0x1F) << 6) | (body.get() & 0x3F));
+            else
+                chars[n++] = (char) (((a & 0x0F) << 12) | ((body.get() & 0x3F) << 6) | (body.get() & 0x3F));
+        }
+
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * Writes a reply. Values may be null (no value), a Float or anything else (sent as text).
+     * @param out
+     * @param id Id of the request answered
+     * @param values
+     * @throws IOException
+     */
+    public static void writeReply(DataOutputStream out, int id, Object[] values) throws IOException {
+        if (values.length > MAX_COMMANDS)
+            throw new IllegalArgumentException(values.length + " values in one reply, at most " + MAX_COMMANDS);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream body = new DataOutputStream(bytes);
+
+        body.writeByte(REPLY);
+        body.writeInt(id);
+        body.writeByte(values.length);
+        for (Object value : values) {
+            if (value == null) {
+                body.writeByte(NONE);
+            } else if (value instanceof Float) {
+                body.writeByte(FLOAT);
+                body.writeFloat((Float) value);
+            } else {
+                body.writeByte(TEXT);
+                body.writeUTF(value.toString());
+            }
+        }
+
+        writeFrame(out, bytes);
+    }
+
+    /**
+     * Writes the progress of a route.
+     * @param out
+     * @param id Id of the request running the route
+     * @param step Step of the route completed
+     * @throws IOException
+     */
+    public static void writeProgress(DataOutputStream out, int id, int step) throws IOException {
+        out.writeInt(9);
+        out.writeByte(PROGRESS);
+        out.writeInt(id);
+        out.writeInt(step);
+        out.flush();
+    }
+
+    /**
+     * Reads a reply or a progress frame.
+     * @param in
+     * @return Reply with one value per command (null, Float or String), or progress
+     * @throws IOException
+     */
+    public static Reply readReply(DataInputStream in) throws IOException {
+        DataInputStream body = readFrame(in);
+        byte kind = body.readByte();
+        int id = body.readInt();
+        if (kind == PROGRESS)
+            return new Reply(id, body.readInt());
+
+        Object[] values = new Object[body.readUnsignedByte()];
+
+        for (int i = 0; i < values.length; i++) {
+            byte tag = body.readByte();
+            if (tag == FLOAT)
+                values[i] = body.readFloat();
+            else if (tag == TEXT)
+                values[i] = body.readUTF();
+        }
+
+        return new Reply(id, values);
+    }
+}
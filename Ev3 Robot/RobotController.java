@@ -1,375 +1,1114 @@
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.ArrayList;
-import java.util.Arrays;
-import lejos.hardware.Sound;
-
-/**
- * Robot class which handles networking, and robot actions.
- * This class parses instructions received through the network and makes the robot act accordingly.
- * @author group 16
- */
-public class RobotController {
-    public static int PORT = 1234;
-
-    private Robot robot;
-    private Monitor monitor;
-    private ServerSocket serverSocket;
-    private Socket client;
-    private OutputStream os;
-    private InputStream is;
-    private ObjectOutputStream oos;
-    private ObjectInputStream ois;
-
-    public RobotController(Robot robot, Monitor monitor) {
-        this.robot = robot;
-        this.monitor = monitor;
-    }
-    
-    /**
-     * Moves the robot for a specified distance.
-     * @param distance Movement distance (cm)
-     */
-    private void move(double distance) {
-        robot.getPilot().travel(distance);
-
-        while (robot.getPilot().isMoving())
-            Thread.yield();
-    }
-    
-    /**
-     * Rotates the robot by a specified angle.
-     * Note: Robot corrects rotation by use of the gyro!
-     * We do this by checking the initial and end angle and comparing it to the rotation angle.
-     * @param rotation_angle Rotation angle (deg)
-     * @return logging data
-     */
-    private String rotate(float rotation_angle) {
-        float start_angle = robot.getAngle();
-        robot.getPilot().rotate(rotation_angle);
-
-        while (robot.getPilot().isMoving())
-            Thread.yield();
-
-        float end_angle  = robot.getAngle();
-        float difference = end_angle - start_angle;
-        difference = (difference + 180) % 360 - 180;
-
-        float error = Utility.shortestRotationAngle(rotation_angle - difference);
-
-        String info = "SA:" + start_angle 
-                   + " EA:" + end_angle 
-                   + " RA:" + rotation_angle 
-                   + " D:"  + difference 
-                   + " ER:" + error;
-        monitor.print(info);
-
-        robot.getPilot().rotate(error);
-
-        while (robot.getPilot().isMoving())
-            Thread.yield();
-
-        robot.updateHeading(rotation_angle);
-
-        return info;
-    }
-    
-    /**
-     * Returns the color value by using the color sampler.
-     * @param SENSOR_TYPE RIGHT/LEFT
-     * @param SAMPLE_RATE How many samples to take.
-     * @return String color reference (green, black ...)
-     */
-    private String getColorValue(final int SENSOR_TYPE, final float SAMPLE_RATE) {
-        float[] avg = new float[3];
-
-        for (int i = 0; i < SAMPLE_RATE; i++) {
-            float[] sample = SENSOR_TYPE == ColorSampler.RIGHT_SENSOR ? robot.getRightColor() : robot.getLeftColor();
-            avg[0] += sample[0];
-            avg[1] += sample[1];
-            avg[2] += sample[2];
-        }
-
-        avg[0] /= SAMPLE_RATE;
-        avg[1] /= SAMPLE_RATE;
-        avg[2] /= SAMPLE_RATE;
-
-        String color_class = robot.getColorSampler().calculateColorClassification(avg, SENSOR_TYPE);
-        
-        if (color_class.equals("yellow"))
-            Sound.beep();
-        
-        if (color_class.equals("burgandy"))
-            Sound.twoBeeps();
-        
-        if (color_class.equals("cyan"))
-            Sound.beep();
-            
-        return color_class; // + " CC: " + Arrays.toString(avg);
-    }
-    
-    /**
-     * Subset of the actions involving odometry correction.
-     * This action rotates the robot in an arc until it scans a black line.
-     * @param type right/left
-     * @param aspeed Angular Speed
-     */
-    private void blackLineRotation(String type, double aspeed) {
-        if (type.equals("right")) {
-            robot.getPilot().arcForward(5);
-        } else if (type.equals("left")) {
-            robot.getPilot().arcForward(-5);
-        } else {
-            robot.getMonitor().setLog("josh this will never happen :(");
-        }
-
-        int sensor = type.equals("right") ? ColorSampler.LEFT_SENSOR : ColorSampler.RIGHT_SENSOR;
-        String sensorColor = null;
-
-        do {
-            sensorColor = getColorValue(sensor, 20);
-            robot.getMonitor().setLog(sensorColor);
-        } while (!sensorColor.equals("black"));
-
-        robot.getPilot().stop();
-        robot.getMonitor().print("STOPPED!");
-
-        // double check
-        sensorColor = getColorValue(sensor, 20);
-        if (!sensorColor.equals("black")) {
-            robot.getMonitor().setLog("the end of the world is near");
-        }
-
-        robot.getPilot().setLinearSpeed(aspeed);
-    }
-    
-    /**
-     * Action which performs odometry correction by centering the robot on the axis it is currently facing.
-     * This method is recursive in order to ensure it will always attempt to correct itself as best it can.
-     * Gyro is also reset during this procedure. 
-     * @param c parameter used in recusion (number of correction moves)
-     * @param aspeed Angular Speed
-     * @param pspeed Linear Speed
-     * @return Logging Data
-     */
-    private String blackLineCorrection(int c, double aspeed, double pspeed) {
-        c++;
-
-        robot.getPilot().setAngularSpeed(aspeed / 10);
-        robot.getPilot().setLinearSpeed(pspeed / 8);
-
-        robot.getPilot().forward();
-
-        String leftColor  = null;
-        String rightColor = null;
-
-        do {
-            leftColor  = getColorValue(ColorSampler.LEFT_SENSOR, 8);
-            rightColor = getColorValue(ColorSampler.RIGHT_SENSOR, 8);
-
-            robot.getMonitor().setLog(leftColor + " | " + rightColor);
-        } while (!leftColor.equals("black") && !rightColor.equals("black"));
-
-        robot.getPilot().stop();
-        robot.getMonitor().print("STOPPED!");
-
-        // double check
-        leftColor  = getColorValue(ColorSampler.LEFT_SENSOR, 8);
-        rightColor = getColorValue(ColorSampler.RIGHT_SENSOR, 8);
-        
-        if ( !leftColor.equals("black") && !rightColor.equals("black") )
-            blackLineCorrection(c, aspeed, pspeed);
-        
-        if (leftColor.equals("black") && rightColor.equals("black")) {
-            robot.getMonitor().print("Resiting gyro!");
-            robot.resetGyro();
-            robot.getPilot().setLinearSpeed(pspeed / 2);
-
-            final int mov_dis = -8;
-            robot.getPilot().travel(mov_dis);
-
-            while (robot.getPilot().isMoving())
-                Thread.yield();
-        } else if (leftColor.equals("black")) {
-            blackLineRotation("left", aspeed);
-            blackLineCorrection(c, aspeed, pspeed);
-        } else if (rightColor.equals("black")) {
-            blackLineRotation("right", aspeed);
-            blackLineCorrection(c, aspeed, pspeed);
-        } else {
-            robot.getMonitor().setLog("Oh no josh, this isn't good! (probably wont happen)");
-            Sound.buzz();
-            return "Oh no!";
-        }
-
-        robot.getPilot().setLinearSpeed(pspeed);
-        robot.getPilot().setAngularSpeed(aspeed);
-        
-        robot.getMonitor().clearLcd();
-        robot.getPilot().stop();
-        
-        return "#CORRECTIONS: " + c;
-    }
-    
-    /**
-     * Procedure to center the robot on a cell. Calls blackLineCorrection()
-     * @param rotation_angle Angle that determines the next centering axis.
-     * @return Completed flag
-     */
-    private String cellCentering(float rotation_angle) {
-        blackLineCorrection(0, robot.getPilot().getAngularSpeed(), robot.getPilot().getLinearSpeed());
-        rotate(rotation_angle);
-        blackLineCorrection(0, robot.getPilot().getAngularSpeed(), robot.getPilot().getLinearSpeed());
-        rotate(-rotation_angle);
-        return "Completed!";
-    }
-    
-    /**
-     * Plays a siren from the Ev3 brick file base.
-     * @return Log data.
-     */
-    private String playSiren() {
-        File neenaw = new File("neenaw.wav");
-        Sound.playSample(neenaw);
-        return "Played sample from: " + neenaw.getAbsolutePath();
-    }
-
-    // String (cmd) grammar: cmd%arg1,arg2,arg3,...,argN
-    /**
-     * Parser.
-     * Parses a string of text and executes the command that it corresponds to.
-     * Parameters may be present.
-     * @param cmd
-     * @return
-     */
-    private String parse(String cmd) {
-        String returnValue  = "DEFAULT";
-        int separator_index = cmd.indexOf("%");
-
-        String prefix    = null;
-        String arguments = null;
-        String args[] 	 = {};
-
-        if (separator_index == -1) {
-            prefix    = cmd;
-            arguments = "";
-        } else {
-            prefix    = cmd.substring(0, separator_index);
-            arguments = cmd.substring(separator_index + 1, cmd.length());
-            args      = arguments.split(",");
-        }
-
-        prefix = prefix.toUpperCase();
-        monitor.print("CMD: " + cmd);
-
-        if ("MOVE".equals(prefix)) {
-            move(Double.parseDouble(args[0]));
-        } else if ("ROTATE".equals(prefix)) {
-            returnValue = rotate(Float.parseFloat(args[0]));
-        } else if ("BEEP".equals(prefix)) {
-            Sound.beep();
-        } else if ("PRINT".equals(prefix)) {
-            robot.getMonitor().print(arguments);
-        } else if ("RCOLOR".equals(prefix)) {
-            returnValue = getColorValue(ColorSampler.RIGHT_SENSOR, 1000);
-        } else if ("LCOLOR".equals(prefix)) {
-            returnValue = getColorValue(ColorSampler.LEFT_SENSOR, 1000);
-        } else if ("DISTANCE".equals(prefix)) {
-            String dis = Float.toString(robot.getDistance());
-            robot.getMonitor().print(dis);
-            returnValue = dis;
-        } else if ("BLCORRECTION".equals(prefix)) {
-            returnValue = blackLineCorrection(0, robot.getPilot().getAngularSpeed(), robot.getPilot().getLinearSpeed());
-        } else if ("CENTERING".equals(prefix)) {
-            returnValue = cellCentering(Float.parseFloat(args[0]));
-        } else if ("DBGCS".equals(prefix)) {
-            returnValue = robot.getColorSampler().debug();
-        } else if ("PLAYSIREN".equals(prefix)) {
-            returnValue = playSiren();
-        } else if ("LAPCOMPLETED".equals(prefix)) {
-            Sound.beepSequence();
-            robot.getMonitor().setText("LAP COMPLETED!");
-            returnValue = "yay!";
-        } else {
-            robot.getMonitor().print("Error! Invalid command!");
-            returnValue = "ERROR";
-        }
-        
-        robot.newInstruction(cmd);
-        
-        return returnValue;
-    }
-    
-    /**
-     * Starts the Socket Server and awaits for client connection.
-     */
-    public void start() {
-        monitor.setText("Waiting for Client...");
-
-        try {
-            this.serverSocket = new ServerSocket(PORT);
-            this.client 	  = serverSocket.accept();
-            this.os  = client.getOutputStream();
-            this.is  = client.getInputStream();
-            this.oos = new ObjectOutputStream(os);
-            this.ois = new ObjectInputStream(is);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        Sound.twoBeeps();
-        monitor.print("Connected!");
-        monitor.setText("GROUP 16 - RESCUE");
-
-        while (true) {
-            String returnValue = null;
-            Object o = null;
-
-            try {
-                o = ois.readObject();
-            } catch (ClassNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-
-            if (o instanceof String) {
-                String txt = (String) o;
-
-                if (txt.equals("%EXIT%"))
-                    break;
-
-                returnValue = parse((String) o);
-            } else if (o instanceof ArrayList) {
-                @SuppressWarnings("unchecked")
-                ArrayList<String> list = (ArrayList<String>) o;
-                String[] rvalues 	   = new String[list.size()];
-
-                int i = 0;
-                for (String cmd : list) {
-                    rvalues[i] = parse(cmd);
-                    i++;
-                }
-
-                returnValue = Arrays.toString(rvalues);
-            } else {
-                monitor.print("Invalid net object!");
-            }
-
-            try {
-                oos.writeObject(returnValue);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        Sound.twoBeeps();
-        monitor.print("Disconnected from network.");
-    }
-}
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import lejos.hardware.Sound;
+
+/**
+ * Robot class which handles networking, and robot actions.
+ * This class parses instructions received through the network and makes the robot act accordingly.
+ * One selector thread serves every connection: the CONTROL session (the planner), MONITOR sessions
+ * (dashboards, answered on their own thread so a query never waits behind a move) and TELEMETRY
+ * sessions (handed over to the TelemetryServer). Everything that moves the robot runs on a single
+ * motion thread, in the order it was received.
+ * @author group 16
+ */
+public class RobotController {
+    public static int PORT = 1234;
+    public static int HELLO_TIMEOUT = 1000; // ms a client has to say HELLO before it's treated as legacy
+    public static final int REPLY_CACHE = 32; // replies kept for requests sent again after a reconnect
+
+    private Robot robot;
+    private Monitor monitor;
+    private TelemetryServer telemetry;
+
+    /**
+     * Runs the commands of one opcode.
+     * @author group 16
+     */
+    private interface Handler {
+        /**
+         * @param command
+         * @return Typed return value (String, Float or null if the command returns nothing)
+         */
+        Object run(Protocol.Command command);
+    }
+
+    // command handlers, indexed by opcode
+    private final Handler[] handlers = new Handler[Protocol.OPCODES];
+
+    /**
+     * A connection served by the selector.
+     * @author group 16
+     */
+    private static class Connection {
+        final SocketChannel channel;
+        final long deadline;                // HELLO expected by then
+        final ConcurrentLinkedQueue<ByteBuffer> out = new ConcurrentLinkedQueue<ByteBuffer>();
+        ByteBuffer in = ByteBuffer.allocate(256);
+        SelectionKey key;
+        int role = -1;                      // -1 until HELLO
+        int handOverRole = -1;              // role it is handed over with, -1 if it stays on the selector
+        int handOverPeriod;
+        volatile boolean closed;
+
+        Connection(SocketChannel channel, long deadline) {
+            this.channel = channel;
+            this.deadline = deadline;
+        }
+    }
+
+    private Selector selector;
+    private final List<Connection> connections = new ArrayList<Connection>();
+    private final ConcurrentLinkedQueue<Connection> dirty = new ConcurrentLinkedQueue<Connection>(); // have replies to send
+    private final List<Connection> handOvers = new ArrayList<Connection>(); // handed over after the selected keys
+    private volatile boolean exit;
+    private boolean first = true;
+
+    private ExecutorService motion;  // commands that drive the robot, one at a time
+    private ExecutorService queries; // commands of the MONITOR sessions
+
+    // CONTROL session (survives reconnections), guarded by sessionLock
+    private final Object sessionLock = new Object();
+    private final Random random = new Random();
+    private Connection control;
+    private long session;
+    private int lastAccepted;   // last request queued for the motion thread
+    private int lastExecuted;   // last request executed
+    private int currentRequest; // request being executed (progress frames carry its id), motion thread only
+    @SuppressWarnings("serial")
+    private final Map<Integer, Object[]> replies = new LinkedHashMap<Integer, Object[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+            return size() > REPLY_CACHE;
+        }
+    };
+
+    public RobotController(Robot robot, Monitor monitor) {
+        this.robot = robot;
+        this.monitor = monitor;
+        registerHandlers();
+    }
+
+    /**
+     * Sets the server the TELEMETRY sessions opened on the command port are handed to.
+     * @param telemetry
+     */
+    public void setTelemetry(TelemetryServer telemetry) {
+        this.telemetry = telemetry;
+    }
+    
+    /**
+     * Moves the robot for a specified distance.
+     * @param distance Movement distance (cm)
+     */
+    private void move(double distance) {
+        robot.getPilot().travel(distance);
+
+        while (robot.getPilot().isMoving())
+            Thread.yield();
+    }
+    
+    /**
+     * Rotates the robot by a specified angle.
+     * Note: Robot corrects rotation by use of the gyro!
+     * We do this by checking the initial and end angle and comparing it to the rotation angle.
+     * @param rotation_angle Rotation angle (deg)
+     * @return logging data
+     */
+    private String rotate(float rotation_angle) {
+        float start_angle = robot.getAngle();
+        robot.getPilot().rotate(rotation_angle);
+
+        while (robot.getPilot().isMoving())
+            Thread.yield();
+
+        float end_angle  = robot.getAngle();
+        float difference = end_angle - start_angle;
+        difference = (difference + 180) % 360 - 180;
+
+        float error = Utility.shortestRotationAngle(rotation_angle - difference);
+
+        String info = "SA:" + start_angle 
+                   + " EA:" + end_angle 
+                   + " RA:" + rotation_angle 
+                   + " D:"  + difference 
+                   + " ER:" + error;
+        monitor.print(info);
+
+        robot.getPilot().rotate(error);
+
+        while (robot.getPilot().isMoving())
+            Thread.yield();
+
+        robot.updateHeading(rotation_angle);
+
+        return info;
+    }
+    
+    /**
+     * Returns the color value by using the color sampler.
+     * @param SENSOR_TYPE RIGHT/LEFT
+     * @param SAMPLE_RATE How many samples to take.
+     * @return String color reference (green, black ...)
+     */
+    private String getColorValue(final int SENSOR_TYPE, final float SAMPLE_RATE) {
+        float[] avg = new float[3];
+
+        for (int i = 0; i < SAMPLE_RATE; i++) {
+            float[] sample = SENSOR_TYPE == ColorSampler.RIGHT_SENSOR ? robot.getRightColor() : robot.getLeftColor();
+            avg[0] += sample[0];
+            avg[1] += sample[1];
+            avg[2] += sample[2];
+        }
+
+        avg[0] /= SAMPLE_RATE;
+        avg[1] /= SAMPLE_RATE;
+        avg[2] /= SAMPLE_RATE;
+
+        String color_class = robot.getColorSampler().calculateColorClassification(avg, SENSOR_TYPE);
+        
+        if (color_class.equals("yellow"))
+            Sound.beep();
+        
+        if (color_class.equals("burgandy"))
+            Sound.twoBeeps();
+        
+        if (color_class.equals("cyan"))
+            Sound.beep();
+            
+        return color_class; // + " CC: " + Arrays.toString(avg);
+    }
+    
+    /**
+     * Subset of the actions involving odometry correction.
+     * This action rotates the robot in an arc until it scans a black line.
+     * @param type right/left
+     * @param aspeed Angular Speed
+     */
+    private void blackLineRotation(String type, double aspeed) {
+        if (type.equals("right")) {
+            robot.getPilot().arcForward(5);
+        } else if (type.equals("left")) {
+            robot.getPilot().arcForward(-5);
+        } else {
+            robot.getMonitor().setLog("josh this will never happen :(");
+        }
+
+        int sensor = type.equals("right") ? ColorSampler.LEFT_SENSOR : ColorSampler.RIGHT_SENSOR;
+        String sensorColor = null;
+
+        do {
+            sensorColor = getColorValue(sensor, 20);
+            robot.getMonitor().setLog(sensorColor);
+        } while (!sensorColor.equals("black"));
+
+        robot.getPilot().stop();
+        robot.getMonitor().print("STOPPED!");
+
+        // double check
+        sensorColor = getColorValue(sensor, 20);
+        if (!sensorColor.equals("black")) {
+            robot.getMonitor().setLog("the end of the world is near");
+        }
+
+        robot.getPilot().setLinearSpeed(aspeed);
+    }
+    
+    /**
+     * Action which performs odometry correction by centering the robot on the axis it is currently facing.
+     * This method is recursive in order to ensure it will always attempt to correct itself as best it can.
+     * Gyro is also reset during this procedure. 
+     * @param c parameter used in recusion (number of correction moves)
+     * @param aspeed Angular Speed
+     * @param pspeed Linear Speed
+     * @return Logging Data
+     */
+    private String blackLineCorrection(int c, double aspeed, double pspeed) {
+        c++;
+
+        robot.getPilot().setAngularSpeed(aspeed / 10);
+        robot.getPilot().setLinearSpeed(pspeed / 8);
+
+        robot.getPilot().forward();
+
+        String leftColor  = null;
+        String rightColor = null;
+
+        do {
+            leftColor  = getColorValue(ColorSampler.LEFT_SENSOR, 8);
+            rightColor = getColorValue(ColorSampler.RIGHT_SENSOR, 8);
+
+            robot.getMonitor().setLog(leftColor + " | " + rightColor);
+        } while (!leftColor.equals("black") && !rightColor.equals("black"));
+
+        robot.getPilot().stop();
+        robot.getMonitor().print("STOPPED!");
+
+        // double check
+        leftColor  = getColorValue(ColorSampler.LEFT_SENSOR, 8);
+        rightColor = getColorValue(ColorSampler.RIGHT_SENSOR, 8);
+        
+        if ( !leftColor.equals("black") && !rightColor.equals("black") )
+            blackLineCorrection(c, aspeed, pspeed);
+        
+        if (leftColor.equals("black") && rightColor.equals("black")) {
+            robot.getMonitor().print("Resiting gyro!");
+            robot.resetGyro();
+            robot.getPilot().setLinearSpeed(pspeed / 2);
+
+            final int mov_dis = -8;
+            robot.getPilot().travel(mov_dis);
+
+            while (robot.getPilot().isMoving())
+                Thread.yield();
+        } else if (leftColor.equals("black")) {
+            blackLineRotation("left", aspeed);
+            blackLineCorrection(c, aspeed, pspeed);
+        } else if (rightColor.equals("black")) {
+            blackLineRotation("right", aspeed);
+            blackLineCorrection(c, aspeed, pspeed);
+        } else {
+            robot.getMonitor().setLog("Oh no josh, this isn't good! (probably wont happen)");
+            Sound.buzz();
+            return "Oh no!";
+        }
+
+        robot.getPilot().setLinearSpeed(pspeed);
+        robot.getPilot().setAngularSpeed(aspeed);
+        
+        robot.getMonitor().clearLcd();
+        robot.getPilot().stop();
+        
+        return "#CORRECTIONS: " + c;
+    }
+    
+    /**
+     * Procedure to center the robot on a cell. Calls blackLineCorrection()
+     * @param rotation_angle Angle that determines the next centering axis.
+     * @return Completed flag
+     */
+    private String cellCentering(float rotation_angle) {
+        blackLineCorrection(0, robot.getPilot().getAngularSpeed(), robot.getPilot().getLinearSpeed());
+        rotate(rotation_angle);
+        blackLineCorrection(0, robot.getPilot().getAngularSpeed(), robot.getPilot().getLinearSpeed());
+        rotate(-rotation_angle);
+        return "Completed!";
+    }
+    
+    /**
+     * Plays a siren from the Ev3 brick file base.
+     * @return Log data.
+     */
+    private String playSiren() {
+        File neenaw = new File("neenaw.wav");
+        Sound.playSample(neenaw);
+        return "Played sample from: " + neenaw.getAbsolutePath();
+    }
+
+    /**
+     * Runs a route uploaded as one program, so the robot drives it without waiting on the network.
+     * The progress is reported after every step (MOVE) to the CONTROL connection of the moment.
+     * A lost connection doesn't stop the route; the client catches up with the reply once it reconnects.
+     * @param program
+     * @return Number of steps completed
+     */
+    private Float runRoute(List<Protocol.Command> program) {
+        int step = 0;
+
+        for (Protocol.Command command : program) {
+            if (command.opcode == Protocol.ROUTE || command.opcode == Protocol.EXIT)
+                continue; // not allowed in a route
+
+            execute(command);
+
+            if (command.opcode == Protocol.MOVE) {
+                sendProgress(step);
+                step++;
+            }
+        }
+
+        return (float) step;
+    }
+
+    private void sendProgress(int step) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(13);
+        try {
+            Protocol.writeProgress(new DataOutputStream(bytes), currentRequest, step);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen, in memory
+        }
+
+        synchronized (sessionLock) {
+            send(control, ByteBuffer.wrap(bytes.toByteArray()));
+        }
+    }
+
+    /**
+     * Describes the state of the robot and of the CONTROL session.
+     * @return Status line
+     */
+    private String status() {
+        int accepted, executed;
+        synchronized (sessionLock) {
+            accepted = lastAccepted;
+            executed = lastExecuted;
+        }
+
+        return "H:" + robot.getHeading()
+            + " A:" + robot.getAngle()
+            + " #i:" + robot.getNumInstructions()
+            + " last:" + robot.getLastInstruction()
+            + " done:" + executed + "/" + accepted
+            + " moving:" + robot.getPilot().isMoving();
+    }
+
+    /**
+     * Fills the handler table: one handler per opcode.
+     */
+    private void registerHandlers() {
+        handlers[Protocol.MOVE] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                move(command.number);
+                return null;
+            }
+        };
+        handlers[Protocol.ROTATE] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return rotate(command.number);
+            }
+        };
+        handlers[Protocol.BEEP] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                Sound.beep();
+                return null;
+            }
+        };
+        handlers[Protocol.PRINT] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                robot.getMonitor().print(command.text);
+                return null;
+            }
+        };
+        handlers[Protocol.RCOLOR] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return getColorValue(ColorSampler.RIGHT_SENSOR, 1000);
+            }
+        };
+        handlers[Protocol.LCOLOR] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return getColorValue(ColorSampler.LEFT_SENSOR, 1000);
+            }
+        };
+        handlers[Protocol.DISTANCE] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                Float dis = robot.getDistance();
+                robot.getMonitor().echo("", dis); // a query, don't hold up the monitor session
+                return dis;
+            }
+        };
+        handlers[Protocol.BLCORRECTION] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return blackLineCorrection(0, robot.getPilot().getAngularSpeed(), robot.getPilot().getLinearSpeed());
+            }
+        };
+        handlers[Protocol.CENTERING] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return cellCentering(command.number);
+            }
+        };
+        handlers[Protocol.DBGCS] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return robot.getColorSampler().debug();
+            }
+        };
+        handlers[Protocol.PLAYSIREN] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return playSiren();
+            }
+        };
+        handlers[Protocol.LAPCOMPLETED] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                Sound.beepSequence();
+                robot.getMonitor().setText("LAP COMPLETED!");
+                return "yay!";
+            }
+        };
+        handlers[Protocol.ROUTE] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return runRoute(command.program);
+            }
+        };
+        handlers[Protocol.STATUS] = new Handler() {
+            @Override
+            public Object run(Protocol.Command command) {
+                return status();
+            }
+        };
+    }
+
+    /**
+     * Returns the handler of an opcode, null if there is none.
+     * @param opcode
+     */
+    private Handler handlerOf(byte opcode) {
+        return opcode > 0 && opcode < handlers.length ? handlers[opcode] : null;
+    }
+
+    // String (cmd) grammar: cmd%arg1,arg2,arg3,...,argN
+    /**
+     * Parser.
+     * Parses a string of text (legacy clients) and executes the command that it corresponds to.
+     * Parameters may be present.
+     * @param cmd
+     * @return
+     */
+    private String parse(String cmd) {
+        Protocol.Command command = Protocol.Command.parse(cmd);
+        if (command == null) {
+            monitor.print("Error! Invalid command! ", cmd);
+            robot.newInstruction(cmd);
+            return "ERROR";
+        }
+
+        Object returnValue = execute(command);
+        return returnValue == null ? "DEFAULT" : returnValue.toString();
+    }
+
+    /**
+     * Executes a command with the handler of its opcode.
+     * The command is echoed on screen by the monitor thread; the caller doesn't wait for it.
+     * @param command
+     * @return Typed return value (String, Float or null if the command returns nothing)
+     */
+    private Object execute(Protocol.Command command) {
+        Object returnValue;
+        monitor.echo("CMD: ", command);
+
+        Handler handler = handlerOf(command.opcode);
+        if (handler == null) {
+            robot.getMonitor().print("Error! Invalid command! ", command);
+            returnValue = "ERROR";
+        } else {
+            returnValue = handler.run(command);
+        }
+
+        robot.newInstruction(command);
+
+        return returnValue;
+    }
+
+    /**
+     * Answers a command of a MONITOR session. Only queries are allowed: they read the state of the
+     * robot without moving it, so they run next to the motion thread instead of behind it.
+     * @param command
+     * @return Typed return value
+     */
+    private Object query(Protocol.Command command) {
+        if (!Protocol.isQuery(command.opcode))
+            return "ERROR";
+        return handlers[command.opcode].run(command);
+    }
+
+    /**
+     * Starts the server and serves clients until the CONTROL (or a legacy) client asks to exit.
+     * A client that drops (Wi-Fi) may connect again and resume its session.
+     */
+    public void start() {
+        monitor.setText("Waiting for Client...");
+
+        ServerSocketChannel server;
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.socket().setReuseAddress(true);
+            server.socket().bind(new InetSocketAddress(PORT));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        motion = Executors.newSingleThreadExecutor(daemonThreads("motion"));
+        queries = Executors.newSingleThreadExecutor(daemonThreads("queries"));
+
+        while (!exit) {
+            try {
+                selector.select(100);
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                if (!key.isValid())
+                    continue;
+
+                if (key.isAcceptable()) {
+                    accept(server);
+                    continue;
+                }
+
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable())
+                        read(connection);
+                    if (key.isValid() && key.isWritable())
+                        write(connection);
+                } catch (IOException e) {
+                    close(connection);
+                }
+            }
+
+            Connection connection;
+            while ((connection = dirty.poll()) != null)
+                if (connection.key.isValid())
+                    connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+            // a client that didn't say HELLO in time is a legacy client, waiting for our header
+            long now = System.currentTimeMillis();
+            for (Connection c : new ArrayList<Connection>(connections))
+                if (c.role < 0 && c.handOverRole < 0 && now > c.deadline) {
+                    c.in.flip();
+                    queueHandOver(c, Protocol.CONTROL, 0);
+                }
+
+            // handing over deregisters the channel (selectNow), which can't be done while the
+            // selected keys are iterated
+            for (Connection c : handOvers)
+                handOver(c, c.handOverRole, c.handOverPeriod);
+            handOvers.clear();
+        }
+
+        // let the robot finish what it was asked to do before leaving
+        motion.shutdown();
+        try {
+            motion.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            // leave now
+        }
+        queries.shutdownNow();
+
+        for (Connection c : new ArrayList<Connection>(connections)) {
+            try {
+                write(c); // last replies
+            } catch (IOException e) {
+                // ignore
+            }
+            close(c);
+        }
+        try {
+            server.close();
+            selector.close();
+        } catch (IOException e) {
+            // ignore
+        }
+
+        Sound.twoBeeps();
+        monitor.print("Disconnected from network.");
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private void accept(ServerSocketChannel server) {
+        try {
+            SocketChannel channel = server.accept();
+            if (channel == null)
+                return;
+
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+
+            Connection connection = new Connection(channel, System.currentTimeMillis() + HELLO_TIMEOUT);
+            connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            connections.add(connection);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void close(Connection connection) {
+        connection.closed = true;
+        connections.remove(connection);
+        if (connection.key != null)
+            connection.key.cancel();
+        try {
+            connection.channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+
+        synchronized (sessionLock) {
+            if (connection == control) {
+                control = null;
+                monitor.setText("Connection lost...");
+            }
+        }
+    }
+
+    /**
+     * Queues a frame for a connection; the selector thread writes it.
+     * @param connection May be null (the frame is dropped)
+     * @param frame
+     */
+    private void send(Connection connection, ByteBuffer frame) {
+        if (connection == null || connection.closed)
+            return;
+
+        connection.out.add(frame);
+        dirty.add(connection);
+        selector.wakeup();
+    }
+
+    private void reply(Connection connection, int id, Object[] values) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            Protocol.writeReply(new DataOutputStream(bytes), id, values);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen, in memory
+        }
+        send(connection, ByteBuffer.wrap(bytes.toByteArray()));
+    }
+
+    private void write(Connection connection) throws IOException {
+        ByteBuffer frame;
+        while ((frame = connection.out.peek()) != null) {
+            connection.channel.write(frame);
+            if (frame.hasRemaining())
+                return; // socket buffer full, wait for OP_WRITE
+            connection.out.poll();
+        }
+
+        if (connection.key.isValid())
+            connection.key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Reads what arrived on a connection: its HELLO first, then its requests.
+     * @param connection
+     * @throws IOException
+     */
+    private void read(Connection connection) throws IOException {
+        if (connection.channel.read(connection.in) == -1)
+            throw new IOException("Connection closed");
+
+        ByteBuffer in = connection.in;
+        in.flip();
+        int needed = connection.role < 0 ? hello(connection) : 0;
+
+        while (connection.role >= 0 && in.remaining() >= 4) {
+            int length = in.getInt(in.position());
+            if (length < 0 || length > Protocol.MAX_FRAME)
+                throw new IOException("Frame of " + length + " bytes");
+            if (in.remaining() < 4 + length) {
+                needed = 4 + length;
+                break;
+            }
+
+            Protocol.Request request = Protocol.readRequest(in); // decoded where it was received
+
+            if (connection.role == Protocol.CONTROL)
+                control(connection, request);
+            else
+                monitor(connection, request);
+
+            if (!connection.key.isValid())
+                break;
+        }
+
+        if (!connection.key.isValid() || connection.handOverRole >= 0)
+            return; // closed or handed over
+
+        in.compact();
+        if (needed > in.capacity()) {
+            ByteBuffer bigger = ByteBuffer.allocate(needed);
+            in.flip();
+            bigger.put(in);
+            connection.in = bigger;
+        }
+    }
+
+    /**
+     * Reads the HELLO of a new connection. A connection that starts with something else is a
+     * legacy client and is handed over to a thread of its own.
+     * A CONTROL client resumes its session if the brick still has it, or gets a new one (and
+     * takes over from the previous CONTROL connection, if any).
+     * @param connection
+     * @return Bytes needed to read the rest of the HELLO (0 when done or handed over)
+     * @throws IOException
+     */
+    private int hello(Connection connection) throws IOException {
+        ByteBuffer in = connection.in;
+
+        if (in.remaining() < 4)
+            return 4;
+        if (in.getInt(in.position()) != Protocol.MAGIC) {
+            queueHandOver(connection, Protocol.CONTROL, 0);
+            return 0;
+        }
+        if (in.remaining() < Protocol.SESSION_HELLO_SIZE)
+            return Protocol.SESSION_HELLO_SIZE;
+
+        int position = in.position();
+        in.getInt();
+        int version = in.get() & 0xFF;
+        if (version != Protocol.VERSION)
+            throw new IOException("Client speaks protocol v" + version);
+        long requested = in.getLong();
+        byte role = in.get();
+
+        if (role == Protocol.TELEMETRY) {
+            if (in.remaining() < 4) {
+                in.position(position);
+                return Protocol.SESSION_HELLO_SIZE + 4;
+            }
+            queueHandOver(connection, Protocol.TELEMETRY, in.getInt());
+            return 0;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(17);
+        DataOutputStream accept = new DataOutputStream(bytes);
+
+        if (role == Protocol.MONITOR) {
+            connection.role = Protocol.MONITOR;
+            Protocol.writeSessionAccept(accept, 0, 0);
+            monitor.setLog("monitor connected");
+        } else if (role == Protocol.CONTROL) {
+            connection.role = Protocol.CONTROL;
+            Connection previous;
+            synchronized (sessionLock) {
+                if (requested != 0 && requested == session) {
+                    monitor.setLog("resumed #" + lastAccepted);
+                } else {
+                    do {
+                        session = random.nextLong();
+                    } while (session == 0);
+                    lastAccepted = 0;
+                    lastExecuted = 0;
+                    replies.clear();
+                }
+
+                previous = control;
+                control = connection;
+                Protocol.writeSessionAccept(accept, session, lastAccepted);
+            }
+
+            if (previous != null)
+                close(previous);
+            connected();
+        } else {
+            throw new IOException("Unknown role " + role);
+        }
+
+        send(connection, ByteBuffer.wrap(bytes.toByteArray()));
+        return 0;
+    }
+
+    /**
+     * Greets the first client (beeps and a message, on the motion thread: printing takes a while).
+     */
+    private void connected() {
+        monitor.setText("GROUP 16 - RESCUE");
+        if (!first)
+            return;
+        first = false;
+
+        motion.execute(new Runnable() {
+            @Override
+            public void run() {
+                Sound.twoBeeps();
+                monitor.print("Connected!");
+            }
+        });
+    }
+
+    /**
+     * Stops reading a connection and queues it to be handed over once the selected keys are done.
+     * @param connection
+     * @param role CONTROL (legacy client) or TELEMETRY
+     * @param period Telemetry period
+     */
+    private void queueHandOver(Connection connection, int role, int period) {
+        connection.handOverRole = role;
+        connection.handOverPeriod = period;
+        connection.key.interestOps(0);
+        handOvers.add(connection);
+    }
+
+    /**
+     * Takes a connection off the selector and hands it over, in blocking mode, to the legacy
+     * request loop (a thread of its own) or to the TelemetryServer.
+     * The bytes already read (the start of the legacy stream) are pushed back.
+     * @param connection
+     * @param role CONTROL (legacy client) or TELEMETRY
+     * @param period Telemetry period
+     */
+    private void handOver(Connection connection, int role, int period) {
+        connections.remove(connection);
+        connection.key.cancel();
+
+        try {
+            selector.selectNow(); // deregisters the channel
+            connection.channel.configureBlocking(true);
+            final Socket socket = connection.channel.socket();
+
+            if (role == Protocol.TELEMETRY) {
+                if (telemetry == null)
+                    throw new IOException("No telemetry on this brick");
+                telemetry.subscribe(socket, period);
+                return;
+            }
+
+            ByteBuffer in = connection.in;
+            byte[] start = new byte[in.remaining()];
+            in.get(start);
+            final PushbackInputStream pis = new PushbackInputStream(socket.getInputStream(), Math.max(1, start.length));
+            pis.unread(start);
+
+            connected();
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    serveLegacy(socket, pis);
+                }
+            }, "legacy");
+            thread.setDaemon(true);
+            thread.start();
+        } catch (IOException e) {
+            e.printStackTrace();
+            close(connection);
+        }
+    }
+
+    /**
+     * Serves a request of the CONTROL session: it is queued for the motion thread and answered
+     * once executed. A request the session already accepted (sent again after a reconnect) is
+     * answered from the reply cache, or when it completes if it is still running; it is never
+     * executed twice.
+     * @param connection
+     * @param request
+     */
+    private void control(Connection connection, final Protocol.Request request) {
+        final List<Protocol.Command> commands = request.commands;
+        if (commands.size() == 1 && commands.get(0).opcode == Protocol.EXIT) {
+            exit = true;
+            return;
+        }
+
+        final long owner;
+        synchronized (sessionLock) {
+            if (request.id <= lastAccepted) {
+                if (request.id > lastExecuted)
+                    return; // queued or running, the reply goes to the CONTROL connection
+
+                Object[] rvalues = replies.get(request.id);
+                if (rvalues == null) // executed, but too long ago to have its reply
+                    rvalues = new Object[commands.size()];
+                monitor.setLog("replayed #" + request.id);
+                reply(connection, request.id, rvalues);
+                return;
+            }
+
+            lastAccepted = request.id;
+            owner = session;
+        }
+
+        motion.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (sessionLock) {
+                    if (session != owner)
+                        return; // the client started over, it doesn't wait for this any more
+                }
+
+                currentRequest = request.id;
+                Object[] rvalues = new Object[commands.size()];
+                for (int i = 0; i < rvalues.length; i++)
+                    rvalues[i] = safely(commands.get(i), false);
+
+                synchronized (sessionLock) {
+                    if (session != owner)
+                        return;
+                    lastExecuted = request.id;
+                    replies.put(request.id, rvalues);
+                    reply(control, request.id, rvalues);
+                }
+            }
+        });
+    }
+
+    /**
+     * Executes (or answers, for a query) a command. A handler that fails returns "ERROR", so the
+     * request is still answered and the client never waits for a reply that won't come.
+     * @param command
+     * @param query MONITOR session
+     * @return Typed return value
+     */
+    private Object safely(Protocol.Command command, boolean query) {
+        try {
+            return query ? query(command) : execute(command);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            monitor.setLog("failed: " + e);
+            return "ERROR";
+        }
+    }
+
+    /**
+     * Serves a request of a MONITOR session on the query thread.
+     * @param connection
+     * @param request
+     */
+    private void monitor(final Connection connection, final Protocol.Request request) {
+        final List<Protocol.Command> commands = request.commands;
+        if (commands.size() == 1 && commands.get(0).opcode == Protocol.EXIT) {
+            close(connection);
+            return;
+        }
+
+        queries.execute(new Runnable() {
+            @Override
+            public void run() {
+                Object[] rvalues = new Object[commands.size()];
+                for (int i = 0; i < rvalues.length; i++)
+                    rvalues[i] = safely(commands.get(i), true);
+                reply(connection, request.id, rvalues);
+            }
+        });
+    }
+
+    /**
+     * Request loop of the legacy protocol (serialized String / ArrayList of String), on a thread
+     * of its own. The commands run on the motion thread like those of the CONTROL session.
+     * @param socket
+     * @param is Input of the connection (with the bytes read by the selector pushed back)
+     */
+    private void serveLegacy(Socket socket, InputStream is) {
+        try {
+            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+            ObjectInputStream ois = new ObjectInputStream(is);
+
+            while (true) {
+                String returnValue = null;
+                Object o = null;
+
+                try {
+                    o = ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+
+                if (o instanceof String) {
+                    String txt = (String) o;
+
+                    if (txt.equals("%EXIT%")) {
+                        exit = true;
+                        selector.wakeup();
+                        return;
+                    }
+
+                    returnValue = inMotion((String) o);
+                } else if (o instanceof ArrayList) {
+                    @SuppressWarnings("unchecked")
+                    ArrayList<String> list = (ArrayList<String>) o;
+                    String[] rvalues 	   = new String[list.size()];
+
+                    int i = 0;
+                    for (String cmd : list) {
+                        rvalues[i] = inMotion(cmd);
+                        i++;
+                    }
+
+                    returnValue = Arrays.toString(rvalues);
+                } else {
+                    monitor.print("Invalid net object!");
+                }
+
+                oos.writeObject(returnValue);
+                oos.reset(); // don't let the handle table grow for the whole run
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            monitor.setText("Connection lost...");
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Parses and executes a legacy command on the motion thread and waits for it.
+     * @param cmd
+     * @return Return value
+     */
+    private String inMotion(final String cmd) throws IOException {
+        try {
+            return motion.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return parse(cmd);
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return "ERROR"; // answered like a failed command of the binary protocol
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pushes telemetry (gyro, heading, distance, both color sensors and the drive motors) to every
+ * subscriber connected to the telemetry port, each at the period it asked for.
+ * Runs on daemon threads next to the RobotController, so the environment sees the state of the
+ * robot without asking for it over the command connection.
+ * @author group 16
+ */
+public class TelemetryServer extends Thread {
+    public static int PORT = 1235;
+    public static final int MIN_PERIOD  = 20;   // fastest rate served (ms)
+    public static final int IDLE_PERIOD = 200;  // poll rate when nobody is subscribed (ms)
+    public static final int STALL_TIMEOUT = 2000; // a subscriber stuck writing a sample longer is dropped (ms)
+
+    /**
+     * A connected subscriber.
+     * Writes its samples on a thread of its own, so a stalled subscriber (Wi-Fi) holds up nobody
+     * else; it only ever has the latest sample to write, the ones it is too slow for are skipped.
+     * @author group 16
+     */
+    private class Subscriber extends Thread {
+        final Socket socket;
+        final OutputStream out;
+        final int period;
+        long nextTime;
+
+        // guarded by this
+        private byte[] frame;      // next sample to write
+        private long writingSince; // when the sample being written was taken, 0 if none
+
+        Subscriber(Socket socket, OutputStream out, int period) {
+            this.setDaemon(true);
+            this.socket = socket;
+            this.out = out;
+            this.period = period;
+        }
+
+        synchronized void offer(byte[] frame) {
+            this.frame = frame;
+            notify();
+        }
+
+        synchronized boolean isStalled(long now) {
+            return writingSince != 0 && now - writingSince > STALL_TIMEOUT;
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    byte[] next;
+                    synchronized (this) {
+                        while (frame == null)
+                            wait();
+                        next = frame;
+                        frame = null;
+                        writingSince = System.currentTimeMillis();
+                    }
+
+                    out.write(next);
+                    out.flush();
+
+                    synchronized (this) {
+                        writingSince = 0;
+                    }
+                }
+            } catch (IOException e) {
+                // dropped below
+            } catch (InterruptedException e) {
+                // dropped below
+            }
+            drop(this);
+        }
+    }
+
+    private final Robot robot;
+    private final Protocol.Telemetry telemetry = new Protocol.Telemetry();
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    private ServerSocket serverSocket;
+
+    public TelemetryServer(Robot robot) {
+        this.setDaemon(true);
+        this.robot = robot;
+    }
+
+    /**
+     * Accepts subscribers: HELLO and the period they want, answered with HELLO.
+     */
+    private void accept() {
+        while (true) {
+            Socket socket = null;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(2000);
+
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                if (in.readInt() != Protocol.MAGIC || Protocol.readHelloVersion(in) != Protocol.VERSION)
+                    throw new IOException("Not a telemetry subscriber");
+
+                subscribe(socket, in.readInt());
+            } catch (IOException e) {
+                e.printStackTrace();
+                close(socket);
+            }
+        }
+    }
+
+    /**
+     * Adds a subscriber whose HELLO was read (here or by the RobotController, which hands over
+     * the telemetry sessions opened on the command port) and answers it with HELLO.
+     * @param socket Blocking socket of the subscriber
+     * @param period Period asked for (ms)
+     * @throws IOException
+     */
+    public void subscribe(Socket socket, int period) throws IOException {
+        period = Math.max(MIN_PERIOD, period);
+
+        OutputStream out = socket.getOutputStream();
+        Protocol.writeHello(new DataOutputStream(out));
+        Subscriber subscriber = new Subscriber(socket, out, period);
+        subscribers.add(subscriber);
+        subscriber.start();
+        robot.getMonitor().setLog("telemetry @" + period + "ms");
+    }
+
+    /**
+     * Removes a subscriber and closes its socket (which ends its thread).
+     * @param subscriber
+     */
+    private void drop(Subscriber subscriber) {
+        if (subscribers.remove(subscriber))
+            close(subscriber.socket);
+    }
+
+    /**
+     * Encodes the telemetry sample once for every subscriber.
+     */
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + Protocol.TELEMETRY_SIZE);
+        try {
+            Protocol.writeTelemetry(new DataOutputStream(bytes), telemetry);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not on a byte array
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads every sensor into the telemetry sample.
+     */
+    private void sample() {
+        telemetry.time = robot.getElapsedTime();
+        telemetry.angle = robot.getAngle();
+        telemetry.heading = robot.getHeading();
+        telemetry.distance = robot.getDistance();
+        robot.getRightColor(telemetry.right);
+        robot.getLeftColor(telemetry.left);
+        telemetry.leftTacho = robot.getLeftMotor().getTachoCount();
+        telemetry.rightTacho = robot.getRightMotor().getTachoCount();
+        telemetry.leftSpeed = robot.getLeftMotor().getRotationSpeed();
+        telemetry.rightSpeed = robot.getRightMotor().getRotationSpeed();
+        telemetry.moving = robot.getPilot().isMoving();
+        telemetry.stalled = robot.getLeftMotor().isStalled() || robot.getRightMotor().isStalled();
+    }
+
+    private void close(Socket socket) {
+        if (socket == null)
+            return;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Thread run method.
+     * Samples once per tick of the fastest subscriber and hands the sample to every subscriber due.
+     * A subscriber stuck writing for more than STALL_TIMEOUT is dropped.
+     */
+    public void run() {
+        try {
+            serverSocket = new ServerSocket(PORT);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            long next = now + IDLE_PERIOD;
+            byte[] frame = null;
+
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.nextTime <= now) {
+                    if (subscriber.isStalled(now)) {
+                        robot.getMonitor().setLog("telemetry stalled");
+                        drop(subscriber);
+                        continue;
+                    }
+
+                    if (frame == null) {
+                        sample();
+                        frame = encode();
+                    }
+
+                    subscriber.offer(frame);
+                    subscriber.nextTime = now + subscriber.period;
+                }
+                next = Math.min(next, subscriber.nextTime);
+            }
+
+            long wait = next - System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,955 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.PushbackInputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless simulator of the Ev3 brick, speaking the same protocol as RobotController, so the
+ * environment (ParamedicEnv with the simulator option, Client, TelemetryClient) runs end to end
+ * without a robot.
+ *
+ * Every command of RobotController is implemented on a kinematic model of the robot: moves and
+ * rotations follow a trapezoidal speed profile (speeds and accelerations default to what Robot's
+ * pilot applies), the gyro can drift, color readings can be noisy and simulated time can
+ * run faster than real time. The arena is a grid of 25cm cells separated by black lines; the
+ * robot starts at the center of the hospital (0, 0) facing +y.
+ * Binary (CONTROL, MONITOR and TELEMETRY sessions, resume, routes) and legacy clients are served.
+ *
+ * Usage (from /Jason Environment):
+ *   javac -d bin src/java/*.java bench/*.java   (Jason on the classpath)
+ *   java -cp bin Ev3Simulator [option=value ...]
+ *   e.g. java -cp bin Ev3Simulator speedup=20 drift=0.2 noise=0.05 victim=2,3,burgandy obstacle=1,1
+ * Options: port, telemetry (port), size (cells), speedup, drift (deg/s), noise (probability),
+ * seed, linear (cm/s), angular (deg/s), linearAcceleration (cm/s2), angularAcceleration (deg/s2),
+ * victim=x,y,color, obstacle=x,y (repeatable).
+ * @author group 16
+ */
+public class Ev3Simulator {
+    // Robot constants (copied from Robot.java, the brick's tree isn't on this classpath)
+    public static final int DEFAULT_LINEAR_SPEED             = 16;
+    public static final int DEFAULT_ANGULAR_SPEED            = 60;
+    public static final double DEFAULT_LINEAR_ACCELERATION  = 6.5;
+    public static final double DEFAULT_ANGULAR_ACCELERATION = 2;
+    public static final float WHEEL_DIAMETER = 4.2f;
+    public static final float CHASSIS_OFFSET = 5.32f;
+
+    // What the pilot actually applies. Robot calls setLinearAcceleration twice, the second time with
+    // DEFAULT_ANGULAR_ACCELERATION, and never setAngularAcceleration, so the angular acceleration
+    // stays MovePilot's default: 4x its default angular speed (80% of the chassis maximum)
+    public static final double MOTOR_MAX_SPEED   = 800; // deg/s (leJOS: 100 x battery voltage, about 8V)
+    public static final double MAX_LINEAR_SPEED  = MOTOR_MAX_SPEED / 360 * Math.PI * WHEEL_DIAMETER; // cm/s
+    public static final double MAX_ANGULAR_SPEED = Math.toDegrees(MAX_LINEAR_SPEED / CHASSIS_OFFSET); // deg/s
+    public static final double APPLIED_LINEAR_ACCELERATION  = DEFAULT_ANGULAR_ACCELERATION;
+    public static final double APPLIED_ANGULAR_ACCELERATION = 4 * 0.8 * MAX_ANGULAR_SPEED;
+
+    // Arena
+    public static final float CELL_SIZE  = 25;  // cm
+    public static final float LINE_WIDTH = 1.5f; // cm
+    public static final float CORRECTION_BACKOFF = 8; // cm driven back from the line by a correction
+    public static final float US_RANGE   = 2.55f; // m, ultrasonic sensor reads Infinity beyond
+
+    public static final int HELLO_TIMEOUT = 1000; // ms, as RobotController
+    public static final int REPLY_CACHE   = 32;
+
+    private static final String[] COLORS = { "white", "black", "yellow", "cyan", "green", "burgandy" };
+    private static final Map<String, float[]> RGB = new HashMap<String, float[]>();
+    static {
+        RGB.put("white",    new float[] { 0.28f, 0.30f, 0.26f });
+        RGB.put("black",    new float[] { 0.02f, 0.03f, 0.02f });
+        RGB.put("yellow",   new float[] { 0.30f, 0.24f, 0.04f });
+        RGB.put("cyan",     new float[] { 0.06f, 0.20f, 0.22f });
+        RGB.put("green",    new float[] { 0.04f, 0.14f, 0.03f });
+        RGB.put("burgandy", new float[] { 0.10f, 0.02f, 0.02f });
+    }
+
+    /**
+     * Trapezoidal speed profile of a motion: accelerates up to the speed, cruises and decelerates
+     * (triangular if the motion is too short to reach the speed).
+     * @author group 16
+     */
+    private static class Profile {
+        final double distance;
+        final double speed;
+        final double acceleration; // 0 for none (full speed at once)
+        final double ramp;         // duration of the acceleration (s)
+        final double peak;         // highest speed reached
+
+        Profile(double distance, double speed, double acceleration) {
+            this.distance = distance;
+            this.speed = speed;
+            this.acceleration = acceleration;
+
+            if (acceleration <= 0) {
+                ramp = 0;
+                peak = speed;
+            } else if (distance >= speed * speed / acceleration) {
+                ramp = speed / acceleration;
+                peak = speed;
+            } else {
+                ramp = Math.sqrt(distance / acceleration);
+                peak = ramp * acceleration;
+            }
+        }
+
+        /**
+         * Duration of the motion (s).
+         */
+        double duration() {
+            if (distance == 0)
+                return 0;
+            return 2 * ramp + (distance - peak * ramp) / peak;
+        }
+
+        /**
+         * Distance covered after t seconds.
+         */
+        double positionAt(double t) {
+            double total = duration();
+            if (t >= total)
+                return distance;
+            if (t < ramp)
+                return acceleration * t * t / 2;
+            if (t <= total - ramp)
+                return peak * ramp / 2 + peak * (t - ramp);
+            double left = total - t;
+            return distance - acceleration * left * left / 2;
+        }
+
+        /**
+         * Speed after t seconds.
+         */
+        double speedAt(double t) {
+            double total = duration();
+            if (t <= 0 || t >= total)
+                return 0;
+            if (t < ramp)
+                return acceleration * t;
+            if (t <= total - ramp)
+                return peak;
+            return acceleration * (total - t);
+        }
+    }
+
+    /**
+     * The motion being driven.
+     * @author group 16
+     */
+    private static class Motion {
+        final Profile profile;
+        final boolean turn;    // rotation, else a straight move
+        final double sign;
+        final double start;    // simulated time (s)
+
+        Motion(Profile profile, boolean turn, double sign, double start) {
+            this.profile = profile;
+            this.turn = turn;
+            this.sign = sign;
+            this.start = start;
+        }
+    }
+
+    // Configuration
+    private int port = 1234;
+    private int telemetryPort = 1235;
+    private int size = 6;
+    private double speedup = 1;
+    private double drift;          // deg/s
+    private double noise;          // probability of a wrong color reading
+    private double linearSpeed = DEFAULT_LINEAR_SPEED;
+    private double angularSpeed = DEFAULT_ANGULAR_SPEED;
+    private double linearAcceleration = APPLIED_LINEAR_ACCELERATION;
+    private double angularAcceleration = APPLIED_ANGULAR_ACCELERATION;
+    private Random random = new Random(16);
+    private final Map<Integer, String> colors = new HashMap<Integer, String>();
+    private final boolean[] blocked = new boolean[64 * 64];
+
+    // Model (guarded by this)
+    private final long startNanos = System.nanoTime();
+    private double x = CELL_SIZE / 2;
+    private double y = CELL_SIZE / 2;
+    private double direction;      // true heading (deg, clockwise from +y)
+    private float heading;         // heading the robot believes it has (Robot.getHeading)
+    private double gyroOffset;     // gyro reading at the last reset
+    private double gyroDirection;  // true heading at the last reset
+    private double gyroReset;      // simulated time of the last reset (s)
+    private double leftTacho;
+    private double rightTacho;
+    private Motion motion;
+    private int instructions;
+    private String lastInstruction;
+
+    // Sessions
+    private final ExecutorService motionThread = Executors.newSingleThreadExecutor(daemonThreads("sim-motion"));
+    private final Object sessionLock = new Object();
+    private DataOutputStream control;
+    private long session;
+    private int lastAccepted;
+    private int lastExecuted;
+    private int currentRequest;
+    @SuppressWarnings("serial")
+    private final Map<Integer, Object[]> replies = new LinkedHashMap<Integer, Object[]>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Object[]> eldest) {
+            return size() > REPLY_CACHE;
+        }
+    };
+    private final Object exitLock = new Object();
+    private boolean exit;
+
+    // Statistics
+    private int requests;
+    private int commands;
+    private double driven; // simulated motion time (s)
+
+    /************************/
+    //        Model         //
+    /************************/
+
+    /**
+     * Simulated time since the start (s).
+     */
+    private double now() {
+        return (System.nanoTime() - startNanos) / 1e9 * speedup;
+    }
+
+    /**
+     * Waits for a simulated duration.
+     * @param seconds
+     */
+    private void pass(double seconds) {
+        try {
+            TimeUnit.NANOSECONDS.sleep((long) (seconds * 1e9 / speedup));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drives a motion to its end (motion thread only).
+     * @param amount Distance (cm) or angle (deg, clockwise), signed
+     * @param speed
+     * @param acceleration
+     * @param turn
+     */
+    private void drive(double amount, double speed, double acceleration, boolean turn) {
+        Profile profile = new Profile(Math.abs(amount), speed, acceleration);
+        synchronized (this) {
+            motion = new Motion(profile, turn, Math.signum(amount), now());
+        }
+
+        pass(profile.duration());
+
+        synchronized (this) {
+            apply(profile.distance * motion.sign, turn);
+            motion = null;
+            driven += profile.duration();
+        }
+    }
+
+    private void apply(double amount, boolean turn) {
+        double wheel = 360 / (Math.PI * WHEEL_DIAMETER); // wheel degrees per cm
+        if (turn) {
+            direction += amount;
+            double arc = Math.toRadians(amount) * CHASSIS_OFFSET;
+            leftTacho += arc * wheel;
+            rightTacho -= arc * wheel;
+        } else {
+            x += amount * Math.sin(Math.toRadians(direction));
+            y += amount * Math.cos(Math.toRadians(direction));
+            leftTacho += amount * wheel;
+            rightTacho += amount * wheel;
+        }
+    }
+
+    /**
+     * Returns the pose of the robot now ({x, y, direction}), part of the way through the motion
+     * being driven.
+     */
+    private synchronized double[] pose() {
+        if (motion == null)
+            return new double[] { x, y, direction };
+
+        double done = motion.profile.positionAt(now() - motion.start) * motion.sign;
+        if (motion.turn)
+            return new double[] { x, y, direction + done };
+        return new double[] { x + done * Math.sin(Math.toRadians(direction)),
+                y + done * Math.cos(Math.toRadians(direction)), direction };
+    }
+
+    /**
+     * Gyro reading, in the frame of the robot's heading (Robot.getAngle), drift included.
+     * Reduced % 360 like the brick does, so it doesn't keep growing over a run.
+     */
+    private synchronized float getAngle() {
+        float ang_inc = (float) (pose()[2] - gyroDirection + drift * (now() - gyroReset));
+        return (ang_inc + (float) gyroOffset) % 360;
+    }
+
+    private synchronized void resetGyro() {
+        gyroOffset = heading;
+        gyroDirection = direction;
+        gyroReset = now();
+    }
+
+    /**
+     * Color under the robot: black on the lines between cells, the cell's color elsewhere.
+     * With probability noise the reading is a random color.
+     */
+    private String getColor() {
+        if (noise > 0 && random.nextDouble() < noise)
+            return COLORS[random.nextInt(COLORS.length)];
+
+        double[] pose = pose();
+        double u = pose[0] / CELL_SIZE;
+        double v = pose[1] / CELL_SIZE;
+        double half = LINE_WIDTH / 2 / CELL_SIZE;
+        if (Math.abs(u - Math.round(u)) < half || Math.abs(v - Math.round(v)) < half)
+            return "black";
+
+        String color = colors.get(cellIndex((int) Math.floor(u), (int) Math.floor(v)));
+        return color == null ? "white" : color;
+    }
+
+    private int cellIndex(int cx, int cy) {
+        return cx * 64 + cy;
+    }
+
+    private boolean isFree(int cx, int cy) {
+        return cx >= 0 && cy >= 0 && cx < size && cy < size && !blocked[cellIndex(cx, cy)];
+    }
+
+    /**
+     * Ultrasonic distance (m) to the wall or obstacle ahead, Infinity out of range.
+     */
+    private float getDistance() {
+        double[] pose = pose();
+        double dx = Math.sin(Math.toRadians(pose[2]));
+        double dy = Math.cos(Math.toRadians(pose[2]));
+
+        for (double d = 0; d <= US_RANGE * 100; d += 0.5) {
+            double px = pose[0] + d * dx;
+            double py = pose[1] + d * dy;
+            if (!isFree((int) Math.floor(px / CELL_SIZE), (int) Math.floor(py / CELL_SIZE)))
+                return (float) (d / 100);
+        }
+        return Float.POSITIVE_INFINITY;
+    }
+
+    /************************/
+    //       Commands       //
+    /************************/
+
+    /**
+     * Rotates like RobotController.rotate: turns, measures the turn with the gyro and turns again
+     * by the error (so a drifting gyro makes the robot turn wrong).
+     * @param rotation_angle
+     * @return logging data
+     */
+    private String rotate(float rotation_angle) {
+        float start_angle = getAngle();
+        drive(rotation_angle, angularSpeed, angularAcceleration, true);
+
+        float end_angle  = getAngle();
+        float difference = end_angle - start_angle;
+        difference = (difference + 180) % 360 - 180;
+
+        float error = Utility.shortestRotationAngle(rotation_angle - difference);
+        drive(error, angularSpeed, angularAcceleration, true);
+
+        synchronized (this) {
+            heading += rotation_angle;
+        }
+
+        return "SA:" + start_angle
+             + " EA:" + end_angle
+             + " RA:" + rotation_angle
+             + " D:"  + difference
+             + " ER:" + error;
+    }
+
+    /**
+     * Odometry correction like RobotController.blackLineCorrection: squares up on the grid axis
+     * the robot is facing, drives slowly to the line ahead, resets the gyro and backs off.
+     */
+    private String blackLineCorrection() {
+        double axis;
+        synchronized (this) {
+            axis = Math.round(direction / 90) * 90;
+        }
+        drive(axis - direction, angularSpeed / 10, angularAcceleration, true);
+
+        double[] pose = pose();
+        double along = Math.abs(Math.sin(Math.toRadians(axis))) > 0.5 ? pose[0] : pose[1];
+        double sign = Math.round(Math.sin(Math.toRadians(axis)) + Math.cos(Math.toRadians(axis)));
+        double line = sign > 0 ? Math.floor(along / CELL_SIZE + 1) * CELL_SIZE : Math.ceil(along / CELL_SIZE - 1) * CELL_SIZE;
+
+        drive(Math.abs(line - along), linearSpeed / 8, linearAcceleration, false);
+        resetGyro();
+        drive(-CORRECTION_BACKOFF, linearSpeed / 2, linearAcceleration, false);
+
+        return "#CORRECTIONS: 1";
+    }
+
+    private String status() {
+        int accepted, executed;
+        synchronized (sessionLock) {
+            accepted = lastAccepted;
+            executed = lastExecuted;
+        }
+
+        synchronized (this) {
+            return "H:" + heading
+                + " A:" + getAngle()
+                + " #i:" + instructions
+                + " last:" + lastInstruction
+                + " done:" + executed + "/" + accepted
+                + " moving:" + (motion != null);
+        }
+    }
+
+    /**
+     * Executes a command as RobotController.execute does.
+     * @param command
+     * @return Typed return value (String, Float or null)
+     */
+    private Object execute(Protocol.Command command) {
+        Object returnValue = null;
+
+        switch (command.opcode) {
+        case Protocol.MOVE:
+            drive(command.number, linearSpeed, linearAcceleration, false);
+            break;
+        case Protocol.ROTATE:
+            returnValue = rotate(command.number);
+            break;
+        case Protocol.BEEP:
+            break;
+        case Protocol.PRINT:
+            System.out.println("[LCD] " + command.text);
+            break;
+        case Protocol.RCOLOR:
+        case Protocol.LCOLOR:
+            returnValue = getColor();
+            break;
+        case Protocol.DISTANCE:
+            returnValue = getDistance();
+            break;
+        case Protocol.BLCORRECTION:
+            returnValue = blackLineCorrection();
+            break;
+        case Protocol.CENTERING:
+            blackLineCorrection();
+            rotate(command.number);
+            blackLineCorrection();
+            rotate(-command.number);
+            returnValue = "Completed!";
+            break;
+        case Protocol.DBGCS:
+            returnValue = "Simulated color sensors, noise " + noise;
+            break;
+        case Protocol.PLAYSIREN:
+            returnValue = "Played sample from: neenaw.wav (simulated)";
+            break;
+        case Protocol.LAPCOMPLETED:
+            returnValue = "yay!";
+            break;
+        case Protocol.ROUTE:
+            returnValue = runRoute(command.program);
+            break;
+        case Protocol.STATUS:
+            returnValue = status();
+            break;
+        default:
+            returnValue = "ERROR";
+        }
+
+        synchronized (this) {
+            instructions++;
+            lastInstruction = command.toString();
+            commands++;
+        }
+
+        return returnValue;
+    }
+
+    private Float runRoute(List<Protocol.Command> program) {
+        int step = 0;
+
+        for (Protocol.Command command : program) {
+            if (command.opcode == Protocol.ROUTE || command.opcode == Protocol.EXIT)
+                continue;
+
+            execute(command);
+
+            if (command.opcode == Protocol.MOVE) {
+                synchronized (sessionLock) {
+                    if (control != null) {
+                        try {
+                            synchronized (control) {
+                                Protocol.writeProgress(control, currentRequest, step);
+                            }
+                        } catch (IOException e) {
+                            // the client catches up with the reply
+                        }
+                    }
+                }
+                step++;
+            }
+        }
+
+        return (float) step;
+    }
+
+    /**
+     * Answers a command of a MONITOR session (queries only).
+     */
+    private Object query(Protocol.Command command) {
+        switch (command.opcode) {
+        case Protocol.DISTANCE:
+            return getDistance();
+        case Protocol.STATUS:
+            return status();
+        case Protocol.DBGCS:
+            return "Simulated color sensors, noise " + noise;
+        default:
+            return "ERROR";
+        }
+    }
+
+    /************************/
+    //       Network        //
+    /************************/
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    private void spawn(String name, Runnable runnable) {
+        Thread thread = daemonThreads(name).newThread(runnable);
+        thread.start();
+    }
+
+    /**
+     * Serves the command port and the telemetry port until a client asks to exit.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        final ServerSocket commandServer = new ServerSocket(port);
+        final ServerSocket telemetryServer = new ServerSocket(telemetryPort);
+        System.out.println("Ev3 simulator on ports " + port + "/" + telemetryPort + ", " + size + "x" + size
+                + " arena, speedup " + speedup + ", drift " + drift + " deg/s, color noise " + noise);
+
+        spawn("sim-accept", new Runnable() {
+            @Override
+            public void run() {
+                accept(commandServer, false);
+            }
+        });
+        spawn("sim-telemetry", new Runnable() {
+            @Override
+            public void run() {
+                accept(telemetryServer, true);
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        synchronized (exitLock) {
+            while (!exit)
+                exitLock.wait();
+        }
+
+        motionThread.shutdown();
+        motionThread.awaitTermination(1, TimeUnit.MINUTES);
+        commandServer.close();
+        telemetryServer.close();
+
+        System.out.println(String.format("Exit: %d requests, %d commands, %.1fs driven (simulated), %.1fs wall time",
+                requests, commands, driven, (System.currentTimeMillis() - start) / 1000.0));
+    }
+
+    private void exit() {
+        synchronized (exitLock) {
+            exit = true;
+            exitLock.notifyAll();
+        }
+    }
+
+    private void accept(ServerSocket server, final boolean telemetryOnly) {
+        while (true) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return; // closed
+            }
+
+            spawn("sim-connection", new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (telemetryOnly)
+                            subscribe(socket);
+                        else
+                            serve(socket);
+                    } catch (IOException e) {
+                        // connection lost
+                    } finally {
+                        close(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Picks the protocol and role of a connection on the command port, as RobotController does.
+     */
+    private void serve(Socket socket) throws IOException {
+        PushbackInputStream pis = new PushbackInputStream(socket.getInputStream(), 4);
+
+        socket.setSoTimeout(HELLO_TIMEOUT);
+        byte[] magic = new byte[4];
+        int read = 0;
+        try {
+            while (read < magic.length) {
+                int n = pis.read(magic, read, magic.length - read);
+                if (n == -1)
+                    break;
+                read += n;
+            }
+        } catch (SocketTimeoutException e) {
+            // legacy client
+        }
+        socket.setSoTimeout(0);
+
+        if (read < 4 || new DataInputStream(new ByteArrayInputStream(magic)).readInt() != Protocol.MAGIC) {
+            pis.unread(magic, 0, read);
+            serveLegacy(socket, pis);
+            return;
+        }
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(pis));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        int version = Protocol.readHelloVersion(in);
+        if (version != Protocol.VERSION)
+            throw new IOException("Client speaks protocol v" + version);
+        long requested = in.readLong();
+        byte role = in.readByte();
+
+        if (role == Protocol.TELEMETRY) {
+            streamTelemetry(out, in.readInt());
+        } else if (role == Protocol.MONITOR) {
+            Protocol.writeSessionAccept(out, 0, 0);
+            serveMonitor(in, out);
+        } else {
+            synchronized (sessionLock) {
+                if (requested == 0 || requested != session) {
+                    do {
+                        session = random.nextLong();
+                    } while (session == 0);
+                    lastAccepted = 0;
+                    lastExecuted = 0;
+                    replies.clear();
+                }
+                control = out;
+                Protocol.writeSessionAccept(out, session, lastAccepted);
+            }
+            serveControl(in, out);
+        }
+    }
+
+    /**
+     * CONTROL session: requests run on the motion thread in order, each at most once.
+     */
+    private void serveControl(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            final Protocol.Request request = Protocol.readRequest(in);
+            final List<Protocol.Command> batch = request.commands;
+            if (batch.size() == 1 && batch.get(0).opcode == Protocol.EXIT) {
+                exit();
+                return;
+            }
+
+            final long owner;
+            synchronized (sessionLock) {
+                if (request.id <= lastAccepted) {
+                    if (request.id <= lastExecuted) {
+                        Object[] rvalues = replies.get(request.id);
+                        reply(out, request.id, rvalues == null ? new Object[batch.size()] : rvalues);
+                    }
+                    continue;
+                }
+                lastAccepted = request.id;
+                owner = session;
+            }
+            synchronized (this) {
+                requests++;
+            }
+
+            motionThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    synchronized (sessionLock) {
+                        if (session != owner)
+                            return;
+                        currentRequest = request.id;
+                    }
+
+                    Object[] rvalues = new Object[batch.size()];
+                    for (int i = 0; i < rvalues.length; i++)
+                        rvalues[i] = execute(batch.get(i));
+
+                    synchronized (sessionLock) {
+                        if (session != owner)
+                            return;
+                        lastExecuted = request.id;
+                        replies.put(request.id, rvalues);
+                        if (control != null)
+                            reply(control, request.id, rvalues);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * MONITOR session: queries answered at once, even while the robot moves.
+     */
+    private void serveMonitor(DataInputStream in, DataOutputStream out) throws IOException {
+        while (true) {
+            Protocol.Request request = Protocol.readRequest(in);
+            if (request.commands.size() == 1 && request.commands.get(0).opcode == Protocol.EXIT)
+                return;
+
+            Object[] rvalues = new Object[request.commands.size()];
+            for (int i = 0; i < rvalues.length; i++)
+                rvalues[i] = query(request.commands.get(i));
+            reply(out, request.id, rvalues);
+        }
+    }
+
+    private void reply(DataOutputStream out, int id, Object[] values) {
+        try {
+            synchronized (out) {
+                Protocol.writeReply(out, id, values);
+            }
+        } catch (IOException e) {
+            // lost, the client sends the request again once reconnected
+        }
+    }
+
+    /**
+     * Legacy session (serialized String / ArrayList of String).
+     */
+    private void serveLegacy(Socket socket, InputStream is) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
+        ObjectInputStream ois = new ObjectInputStream(is);
+
+        while (true) {
+            Object o;
+            try {
+                o = ois.readObject();
+            } catch (ClassNotFoundException e) {
+                o = null;
+            }
+
+            String returnValue = null;
+            if (o instanceof String) {
+                if (o.equals("%EXIT%")) {
+                    exit();
+                    return;
+                }
+                returnValue = parse((String) o);
+            } else if (o instanceof ArrayList) {
+                @SuppressWarnings("unchecked")
+                ArrayList<String> list = (ArrayList<String>) o;
+                String[] rvalues = new String[list.size()];
+                for (int i = 0; i < rvalues.length; i++)
+                    rvalues[i] = parse(list.get(i));
+                returnValue = Arrays.toString(rvalues);
+            }
+
+            synchronized (this) {
+                requests++;
+            }
+            oos.writeObject(returnValue);
+            oos.reset();
+        }
+    }
+
+    /**
+     * Parses and executes a legacy command on the motion thread.
+     */
+    private String parse(String cmd) throws IOException {
+        final Protocol.Command command = Protocol.Command.parse(cmd);
+        if (command == null)
+            return "ERROR";
+
+        try {
+            Object returnValue = motionThread.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return execute(command);
+                }
+            }).get();
+            return returnValue == null ? "DEFAULT" : returnValue.toString();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Telemetry port: HELLO and the period, then the stream.
+     */
+    private void subscribe(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        if (in.readInt() != Protocol.MAGIC || Protocol.readHelloVersion(in) != Protocol.VERSION)
+            throw new IOException("Not a telemetry subscriber");
+        streamTelemetry(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())), in.readInt());
+    }
+
+    private void streamTelemetry(DataOutputStream out, int period) throws IOException {
+        Protocol.writeHello(out);
+        period = Math.max(20, period);
+        Protocol.Telemetry telemetry = new Protocol.Telemetry();
+
+        while (true) {
+            sample(telemetry);
+            Protocol.writeTelemetry(out, telemetry);
+            try {
+                Thread.sleep(period);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void sample(Protocol.Telemetry telemetry) {
+        String color = getColor();
+        float distance = getDistance();
+        synchronized (this) {
+            double wheel = 360 / (Math.PI * WHEEL_DIAMETER);
+            double left = leftTacho;
+            double right = rightTacho;
+            double speed = 0;
+
+            if (motion != null) {
+                double t = now() - motion.start;
+                double done = motion.profile.positionAt(t) * motion.sign;
+                speed = motion.profile.speedAt(t) * motion.sign;
+                if (motion.turn) { // wheels turn opposite ways, along the arc
+                    done = Math.toRadians(done) * CHASSIS_OFFSET;
+                    speed = Math.toRadians(speed) * CHASSIS_OFFSET;
+                }
+                left += done * wheel;
+                right += (motion.turn ? -done : done) * wheel;
+                speed *= wheel;
+            }
+
+            telemetry.time = (long) (now() * 1000);
+            telemetry.angle = getAngle();
+            telemetry.heading = heading;
+            telemetry.distance = distance;
+            System.arraycopy(RGB.get(color), 0, telemetry.right, 0, 3);
+            System.arraycopy(RGB.get(color), 0, telemetry.left, 0, 3);
+            telemetry.leftTacho = (int) left;
+            telemetry.rightTacho = (int) right;
+            telemetry.leftSpeed = (int) speed;
+            telemetry.rightSpeed = (int) (motion != null && motion.turn ? -speed : speed);
+            telemetry.moving = motion != null;
+            telemetry.stalled = false;
+        }
+    }
+
+    /************************/
+    //    Configuration     //
+    /************************/
+
+    private void configure(String option) {
+        int equals = option.indexOf('=');
+        if (equals == -1)
+            throw new IllegalArgumentException("Expected option=value: " + option);
+        String name = option.substring(0, equals);
+        String value = option.substring(equals + 1);
+        String[] parts = value.split(",");
+
+        if (name.equals("port"))
+            port = Integer.parseInt(value);
+        else if (name.equals("telemetry"))
+            telemetryPort = Integer.parseInt(value);
+        else if (name.equals("size"))
+            size = Math.min(64, Integer.parseInt(value));
+        else if (name.equals("speedup"))
+            speedup = Double.parseDouble(value);
+        else if (name.equals("drift"))
+            drift = Double.parseDouble(value);
+        else if (name.equals("noise"))
+            noise = Double.parseDouble(value);
+        else if (name.equals("seed"))
+            random = new Random(Long.parseLong(value));
+        else if (name.equals("linear"))
+            linearSpeed = Double.parseDouble(value);
+        else if (name.equals("angular"))
+            angularSpeed = Double.parseDouble(value);
+        else if (name.equals("linearAcceleration"))
+            linearAcceleration = Double.parseDouble(value);
+        else if (name.equals("angularAcceleration"))
+            angularAcceleration = Double.parseDouble(value);
+        else if (name.equals("victim"))
+            colors.put(cellIndex(Integer.parseInt(parts[0]), Integer.parseInt(parts[1])), parts[2]);
+        else if (name.equals("obstacle"))
+            blocked[cellIndex(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]))] = true;
+        else
+            throw new IllegalArgumentException("Unknown option " + name);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Ev3Simulator simulator = new Ev3Simulator();
+        simulator.colors.put(simulator.cellIndex(0, 0), "yellow"); // hospital
+        for (String arg : args)
+            simulator.configure(arg);
+        simulator.run();
+    }
+}
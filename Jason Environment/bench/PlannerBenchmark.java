@@ -0,0 +1,284 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmark harness for the planning stack (Arena, PathResolver, the planners and goal selection).
+ * Arenas are generated from 6x6 up to large grids with a configurable obstacle density and
+ * number of victims. Every benchmark is warmed up, then timed operation by operation to
+ * report throughput, latency percentiles and allocation rate.
+ *
+ * Usage (from /Jason Environment):
+ *   javac -d bin src/java/*.java bench/*.java   (Jason on the classpath)
+ *   java -cp bin PlannerBenchmark [sizes] [densities] [victims] [iterations]
+ *   e.g. java -cp bin PlannerBenchmark 6,64,512 0,0.2 4,64 200
+ * @author group 16
+ */
+public class PlannerBenchmark {
+    private static final long SEED = 16;
+
+    /**
+     * A single benchmarked operation.
+     * @author group 16
+     */
+    private static abstract class Operation {
+        final String name;
+
+        Operation(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Runs the operation once. The returned value is consumed so the JIT can't drop the work.
+         * @param i iteration number
+         * @return any object derived from the work done
+         */
+        abstract Object run(int i);
+    }
+
+    private static Object sink;
+    private static final List<GoalEvaluator> evaluators = new ArrayList<GoalEvaluator>();
+
+    /************************/
+    //   Arena Generation   //
+    /************************/
+
+    /**
+     * Generates an arena with randomly placed obstacles and victims.
+     * The hospital cell (0, 0) is always left free.
+     * @param size
+     * @param density Fraction of blocked cells
+     * @param victims
+     * @param seed
+     * @return Arena
+     */
+    public static Arena generateArena(int size, double density, int victims, long seed) {
+        Random random = new Random(seed);
+        Arena arena = new Arena(size, size);
+
+        for (int x = 0; x < size; x++)
+            for (int y = 0; y < size; y++)
+                if ((x != 0 || y != 0) && random.nextDouble() < density)
+                    arena.getCell(x, y).setBlocked(true);
+
+        arena.getCell(0, 0).setHospital(true);
+
+        int placed = 0;
+        int cells = size * size - 1;
+        while (placed < Math.min(victims, cells)) {
+            Arena.Cell cell = arena.getCell(random.nextInt(size), random.nextInt(size));
+            if (cell.isBlocked() || cell.hasVictim() || cell.isHospital())
+                continue;
+            cell.setHasVictim(true);
+            placed++;
+        }
+
+        return arena;
+    }
+
+    /**
+     * Picks random free cells (used as start cells for the searches).
+     * @param arena
+     * @param count
+     * @param seed
+     * @return free cells
+     */
+    private static Arena.Cell[] freeCells(Arena arena, int count, long seed) {
+        Random random = new Random(seed);
+        Arena.Cell[] cells = new Arena.Cell[count];
+        for (int i = 0; i < count; i++) {
+            Arena.Cell cell;
+            do {
+                cell = arena.getCell(random.nextInt(arena.WIDTH), random.nextInt(arena.HEIGHT));
+            } while (cell.isBlocked());
+            cells[i] = cell;
+        }
+        return cells;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Arena.Cell> victimCells(Arena arena) {
+        return arena.calculatePossibleVictimCells();
+    }
+
+    /************************/
+    //      Measurement     //
+    /************************/
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    private static void measure(String scenario, Operation op, int iterations) {
+        // warm up with as many operations as are measured
+        for (int i = 0; i < iterations; i++)
+            sink = op.run(i);
+
+        long[] times = new long[iterations];
+        long allocStart = allocatedBytes();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            long t = System.nanoTime();
+            sink = op.run(i);
+            times[i] = System.nanoTime() - t;
+        }
+
+        long total = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocStart;
+        Arrays.sort(times);
+
+        System.out.println(String.format("%-28s %-30s %12.1f %10.1f %10.1f %10.1f %10.1f %12s",
+                scenario, op.name,
+                iterations / (total / 1e9),
+                percentile(times, 0.50) / 1e3,
+                percentile(times, 0.90) / 1e3,
+                percentile(times, 0.99) / 1e3,
+                times[times.length - 1] / 1e3,
+                allocStart < 0 ? "n/a" : Long.toString(allocated / iterations)));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, i))];
+    }
+
+    /************************/
+    //      Benchmarks      //
+    /************************/
+
+    private static List<Operation> operations(final Arena arena, final int iterations) {
+        final Arena.Cell[] starts = freeCells(arena, iterations, SEED + 1);
+        final Arena.Cell[] goals = freeCells(arena, iterations, SEED + 2);
+        final List<Arena.Cell> victims = victimCells(arena);
+
+        final PathResolver resolver = new PathResolver(arena);
+        final GridPathfinder pathfinder = new GridPathfinder(arena);
+        final JumpPointSearch jps = new JumpPointSearch(arena);
+        final IncrementalPlanner planner = new IncrementalPlanner(arena);
+        final GoalEvaluator sequential = new GoalEvaluator(arena, 1);
+        final GoalEvaluator parallel = new GoalEvaluator(arena, Runtime.getRuntime().availableProcessors());
+        planner.setGoals(victims);
+        evaluators.add(sequential);
+        evaluators.add(parallel);
+
+        List<Operation> ops = new ArrayList<Operation>();
+
+        // graph construction
+        ops.add(new Operation("new PathResolver") {
+            Object run(int i) {
+                return new PathResolver(arena);
+            }
+        });
+
+        // single path search
+        ops.add(new Operation("PathResolver A*") {
+            Object run(int i) {
+                return resolver.calculatePath(starts[i], goals[i]);
+            }
+        });
+        ops.add(new Operation("GridPathfinder A*") {
+            Object run(int i) {
+                return pathfinder.findPath(starts[i], goals[i]);
+            }
+        });
+        ops.add(new Operation("JumpPointSearch") {
+            Object run(int i) {
+                return jps.findPath(starts[i], goals[i]);
+            }
+        });
+
+        // victim scan
+        ops.add(new Operation("calculatePossibleVictimCells") {
+            Object run(int i) {
+                return arena.calculatePossibleVictimCells();
+            }
+        });
+
+        // resolveNextGoal style selection
+        ops.add(new Operation("select: A* per victim") {
+            Object run(int i) {
+                List<Arena.Cell> best = null;
+                for (Arena.Cell goal : victimCells(arena)) {
+                    List<Arena.Cell> path = pathfinder.findPath(starts[i], goal);
+                    if (path != null && (best == null || path.size() < best.size()))
+                        best = path;
+                }
+                return best;
+            }
+        });
+        ops.add(new Operation("select: findNearest") {
+            Object run(int i) {
+                return pathfinder.findNearest(starts[i], victimCells(arena)).getPath();
+            }
+        });
+        ops.add(new Operation("select: D* Lite") {
+            Object run(int i) {
+                planner.setGoals(victimCells(arena));
+                return planner.findPath(starts[i]);
+            }
+        });
+        ops.add(new Operation("select: JPS sequential") {
+            Object run(int i) {
+                return sequential.findShortest(starts[i], victimCells(arena));
+            }
+        });
+        ops.add(new Operation("select: JPS parallel") {
+            Object run(int i) {
+                return parallel.findShortest(starts[i], victimCells(arena));
+            }
+        });
+
+        return ops;
+    }
+
+    private static int[] parseInts(String s) {
+        String[] parts = s.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    private static double[] parseDoubles(String s) {
+        String[] parts = s.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+
+    public static void main(String[] args) {
+        int[] sizes         = parseInts(args.length > 0 ? args[0] : "6,32,128,512");
+        double[] densities  = parseDoubles(args.length > 1 ? args[1] : "0,0.2");
+        int[] victimCounts  = parseInts(args.length > 2 ? args[2] : "4,32");
+        int iterations      = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+        System.out.println(String.format("%-28s %-30s %12s %10s %10s %10s %10s %12s",
+                "scenario", "operation", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "bytes/op"));
+
+        for (int size : sizes) {
+            for (double density : densities) {
+                for (int victims : victimCounts) {
+                    Arena arena = generateArena(size, density, victims, SEED);
+                    String scenario = size + "x" + size + " d=" + density + " v=" + victims;
+
+                    for (Operation op : operations(arena, iterations))
+                        measure(scenario, op, iterations);
+
+                    for (GoalEvaluator evaluator : evaluators)
+                        evaluator.shutdown();
+                    evaluators.clear();
+                }
+            }
+        }
+
+        if (sink == null)
+            System.out.println();
+    }
+}
@@ -1,205 +1,607 @@
-import java.util.List;
-import java.util.ArrayList;
-
-/**
- * Arena data structure. Will be used to hold the state of the arena as
- * the robot goes around completing the run.
- * @author group 16
- */
-public class Arena {
-    // Size of the arena
-    public final int WIDTH;
-    public final int HEIGHT;
-    
-    // Directions Used for maping angles.
-    public final float FORWARD  = 0f;
-    public final float BACKWARD = 180f;
-    public final float RIGHT 	= 90f;
-    public final float LEFT 	= 270f;
-    
-    /**
-     * Subclass to represent an arena cell.
-     * @author group 16
-     */
-    public class Cell {
-        public final int x;
-        public final int y;
-
-        private boolean visited; // If a cell has been visited or not by the robot.
-        private boolean blocked;
-        private boolean hasVictim;
-        private boolean isHospital;
-
-        public Cell(int x, int y, boolean blocked, boolean hasVictim, boolean isHospital) {
-            this.x = x;
-            this.y = y;
-            this.blocked = blocked;
-            this.hasVictim = hasVictim;
-            this.visited = false;
-            this.setHospital(false);
-        }
-
-        public void setVisited(boolean b) {
-            this.visited = b;
-        }
-
-        public boolean isVisited() {
-            return this.visited;
-        }
-
-        public boolean isNextToWall() {
-            return this.x == 0 || this.y == 0 || this.x == WIDTH - 1 || this.y == HEIGHT - 1;
-        }
-
-        public void setBlocked(boolean blocked) {
-            this.blocked = blocked;
-        }
-
-        public boolean isBlocked() {
-            return blocked;
-        }
-
-        public void setHasVictim(boolean hasVictim) {
-            this.hasVictim = hasVictim;
-        }
-
-        public boolean hasVictim() {
-            return hasVictim;
-        }
-
-        public boolean isHospital() {
-            return isHospital;
-        }
-
-        public void setHospital(boolean isHospital) {
-            this.isHospital = isHospital;
-        }
-        
-        public void print() {
-            System.out.println("[" + this.x + "][" + this.y + "] = " + "{ B=" + this.blocked + ", P=" + this.hasVictim
-                    + ", H=" + this.isHospital + ", V=" + this.isVisited() + ", W=" + this.isNextToWall() + " }");
-        }
-    }
-    
-    // Arena data 2D Array
-    private Cell[][] arena;
-
-    public Arena(int w, int h) {
-        this.WIDTH = w;
-        this.HEIGHT = h;
-
-        arena = new Cell[WIDTH][HEIGHT];
-
-        for (int row = 0; row < WIDTH; row++) {
-            for (int col = 0; col < HEIGHT; col++) {
-                arena[row][col] = new Cell(row, col, false, false, false);
-            }
-        }
-    }
-    
-    /**
-     * Returns a Arena.Cell object. If it doesn't exists, it will return null.
-     * @param x
-     * @param y
-     * @return Object
-     */
-    public Cell getCell(int x, int y) {
-        if (x >= WIDTH || y >= HEIGHT || x < 0 || y < 0)
-            return null;
-        return arena[x][y];
-    }
-    
-    /**
-     * Gets how many times the robot has visited the cells.
-     * @return num_visits
-     */
-    public int getNumVisits() {
-        int total = 0;
-        for (int row = 0; row < this.WIDTH; row++)
-            for (int col = 0; col < this.HEIGHT; col++)
-                if (arena[row][col].isVisited())
-                    total += 1;
-        return total;
-    }
-    
-    /**
-     * Returns an array list of Arena.Cell objects. 
-     * These represent all the POSSIBLE victim cells on the current map instance.
-     * @return Possible Vicitm Cells List
-     */
-    public List calculatePossibleVictimCells() {
-        List<Arena.Cell> rl = new ArrayList<Arena.Cell>();
-
-        for (int row = 0; row < WIDTH; row++) {
-            for (int col = 0; col < HEIGHT; col++) {
-                Arena.Cell c = arena[row][col];
-                if (c.hasVictim())
-                    rl.add(c);
-            }
-        }
-
-        return rl;
-    }
-    
-    /**
-     * Resolves the angle the robot should turn to face a cell.
-     * Assumes robot is turned towards the starting heading. (thus requires heading offset when used!)
-     * @param currentCell
-     * @param nextCell
-     * @return Rotation Angle
-     */
-    public float resolveMappedAngle(Arena.Cell currentCell, Arena.Cell nextCell) {
-        double dy = nextCell.y - currentCell.y;
-        double dx = nextCell.x - currentCell.x;
-
-        if (dy > 0 && dy != 0)
-            return FORWARD;
-
-        if (dx > 0 && dx != 0)
-            return RIGHT;
-
-        if (dy < 0 && dy != 0)
-            return BACKWARD;
-
-        if (dx < 0 && dx != 0)
-            return LEFT;
-
-        return -1;
-    }
-    
-    /**
-     * Returns each neighbour by using the heading of the robot.
-     * @param currentCell
-     * @param headingAngle
-     * @param direction
-     * @return The neighbour cell of which the heading refers to.
-     */
-    public Arena.Cell getNeighbourByHeading(Arena.Cell currentCell, float headingAngle, float direction) {
-        float actual_direction = (headingAngle + direction) % 360;
-
-        if (actual_direction == FORWARD)
-            return getCell(currentCell.x, currentCell.y + 1);
-
-        if (actual_direction == BACKWARD)
-            return getCell(currentCell.x, currentCell.y - 1);
-
-        if (actual_direction == LEFT)
-            return getCell(currentCell.x - 1, currentCell.y);
-
-        if (actual_direction == RIGHT)
-            return getCell(currentCell.x + 1, currentCell.y);
-
-        return null;
-    }
-    
-    /**
-     * Print method.
-     */
-    public void print() {
-        for (int row = 0; row < WIDTH; row++) {
-            for (int col = 0; col < HEIGHT; col++) {
-                getCell(row, col).print();
-            }
-        }
-    }
-}
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Arena data structure. Will be used to hold the state of the arena as
+ * the robot goes around completing the run.
+ * The arena may be read from other threads (GUI, planners) while the environment updates it:
+ * writes take a StampedLock write lock, single cell reads are optimistic (lock free unless they
+ * race a write) and queries over many cells take the read lock. snapshot() gives an immutable
+ * copy that can be searched for as long as needed while the live arena keeps changing.
+ * Changes to the cells are collected and handed to the ArenaListeners in batches (publishChanges).
+ * @author group 16
+ */
+public class Arena {
+    // Size of the arena
+    public final int WIDTH;
+    public final int HEIGHT;
+    
+    // Directions Used for maping angles.
+    public final float FORWARD  = 0f;
+    public final float BACKWARD = 180f;
+    public final float RIGHT 	= 90f;
+    public final float LEFT 	= 270f;
+    
+    /**
+     * Subclass to represent an arena cell.
+     * A cell is only a view over the arena's flag bitsets (see below), so any number of
+     * Cell objects may exist for the same position. Compare cells with equals, not ==.
+     * @author group 16
+     */
+    public class Cell {
+        public final int x;
+        public final int y;
+        private final int index;
+
+        private Cell(int x, int y) {
+            this.x = x;
+            this.y = y;
+            this.index = x * HEIGHT + y;
+        }
+
+        public void setVisited(boolean b) {
+            long stamp = writeLock();
+            try {
+                if (visited.get(index) == b)
+                    return;
+                visited.set(index, b);
+                visitedCount += b ? 1 : -1;
+                record(ArenaChange.Type.VISITED, index, b);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public boolean isVisited() {
+            return read(visited, index);
+        }
+
+        public boolean isNextToWall() {
+            return this.x == 0 || this.y == 0 || this.x == WIDTH - 1 || this.y == HEIGHT - 1;
+        }
+
+        public void setBlocked(boolean blocked) {
+            long stamp = writeLock();
+            try {
+                if (Arena.this.blocked.get(index) == blocked)
+                    return;
+                Arena.this.blocked.set(index, blocked);
+                blockedChanges.add(this);
+                record(ArenaChange.Type.BLOCKED, index, blocked);
+                if (blocked)
+                    obstacleIndex.add(index);
+                else
+                    obstacleIndex.remove(index);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public boolean isBlocked() {
+            return read(blocked, index);
+        }
+
+        public void setHasVictim(boolean hasVictim) {
+            long stamp = writeLock();
+            try {
+                if (victims.get(index) == hasVictim)
+                    return;
+                victims.set(index, hasVictim);
+                record(ArenaChange.Type.VICTIM, index, hasVictim);
+                if (hasVictim)
+                    victimIndex.add(index);
+                else
+                    victimIndex.remove(index);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public boolean hasVictim() {
+            return read(victims, index);
+        }
+
+        public boolean isHospital() {
+            return read(hospitals, index);
+        }
+
+        public void setHospital(boolean isHospital) {
+            long stamp = writeLock();
+            try {
+                if (hospitals.get(index) == isHospital)
+                    return;
+                hospitals.set(index, isHospital);
+                record(ArenaChange.Type.HOSPITAL, index, isHospital);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private Arena getArena() {
+            return Arena.this;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Cell))
+                return false;
+            Cell other = (Cell) o;
+            return other.getArena() == Arena.this && other.x == x && other.y == y;
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+        
+        public void print() {
+            System.out.println("[" + this.x + "][" + this.y + "] = " + "{ B=" + this.isBlocked() + ", P=" + this.hasVictim()
+                    + ", H=" + this.isHospital() + ", V=" + this.isVisited() + ", W=" + this.isNextToWall() + " }");
+        }
+    }
+    
+    // Cell flags, one bit per cell (indexed by x * HEIGHT + y)
+    private final boolean sparse;
+    private final BitStorage visited;
+    private final BitStorage blocked;
+    private final BitStorage victims;
+    private final BitStorage hospitals;
+    
+    // Log of cells whose blocked state changed (the arena version is its size)
+    private final ArrayList<Cell> blockedChanges = new ArrayList<Cell>();
+
+    /**
+     * Sorted set of cell indices, kept up to date by the Cell setters.
+     * Iterating it visits the cells in index order, the same order a full scan would.
+     * @author group 16
+     */
+    private static class IndexSet {
+        private int[] indices = new int[16];
+        private int size;
+
+        private int find(int index) {
+            return Arrays.binarySearch(indices, 0, size, index);
+        }
+
+        void add(int index) {
+            int i = find(index);
+            if (i >= 0)
+                return;
+            i = -i - 1;
+            if (size == indices.length)
+                indices = Arrays.copyOf(indices, size * 2);
+            System.arraycopy(indices, i, indices, i + 1, size - i);
+            indices[i] = index;
+            size++;
+        }
+
+        void remove(int index) {
+            int i = find(index);
+            if (i < 0)
+                return;
+            System.arraycopy(indices, i + 1, indices, i, size - i - 1);
+            size--;
+        }
+
+        /**
+         * Rebuilds the set from a bitset.
+         * @param bits
+         */
+        void fill(BitStorage bits) {
+            size = 0;
+            for (int w = bits.nextWord(0); w != -1; w = bits.nextWord(w + 1)) {
+                for (long word = bits.getWord(w); word != 0; word &= word - 1) {
+                    if (size == indices.length)
+                        indices = Arrays.copyOf(indices, size * 2);
+                    indices[size++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                }
+            }
+        }
+    }
+
+    // Live indexes over the cell flags
+    private final IndexSet victimIndex = new IndexSet();
+    private final IndexSet obstacleIndex = new IndexSet();
+    private int visitedCount;
+
+    // Guards every field above (the Cell views hold no state of their own)
+    private final StampedLock lock = new StampedLock();
+    private boolean readOnly;
+
+    // Change events waiting to be published, keyed by (type, cell index)
+    private final CopyOnWriteArrayList<ArenaListener> listeners = new CopyOnWriteArrayList<ArenaListener>();
+    private final LinkedHashMap<Long, ArenaChange> pendingChanges = new LinkedHashMap<Long, ArenaChange>();
+
+    public Arena(int w, int h) {
+        this(w, h, false);
+    }
+    
+    /**
+     * Creates an arena. A sparse arena keeps its cell flags in chunks allocated on the
+     * first write, so unknown/free space costs nothing (for very large floor plans).
+     * @param w
+     * @param h
+     * @param sparse
+     */
+    public Arena(int w, int h, boolean sparse) {
+        this.WIDTH = w;
+        this.HEIGHT = h;
+        this.sparse = sparse;
+
+        this.visited   = createStorage();
+        this.blocked   = createStorage();
+        this.victims   = createStorage();
+        this.hospitals = createStorage();
+    }
+    
+    /**
+     * Creates a copy of another arena (e.g. a snapshot for planners on other threads).
+     * @param other
+     */
+    public Arena(Arena other) {
+        this(other.WIDTH, other.HEIGHT, other.sparse);
+        copyFrom(other);
+    }
+    
+    private BitStorage createStorage() {
+        return sparse ? new ChunkedBitStorage(WIDTH * HEIGHT) : new DenseBitStorage(WIDTH * HEIGHT);
+    }
+    
+    /**
+     * Returns whether the arena keeps its cells in lazily allocated chunks.
+     * @return sparse
+     */
+    public boolean isSparse() {
+        return sparse;
+    }
+    
+    /**
+     * Overwrites the state of every cell with the state of another arena of the same size.
+     * Blocked cells that flip are logged as changes, one word of cells at a time.
+     * @param other
+     */
+    public void copyFrom(Arena other) {
+        if (other == this)
+            return;
+
+        long stamp = writeLock();
+        long otherStamp = other.lock.readLock();
+        try {
+            copyCells(other);
+        } finally {
+            other.lock.unlockRead(otherStamp);
+            lock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Returns an immutable copy of the arena, consistent with a single point in time.
+     * Planners/renderers on other threads can read it without being affected by later writes.
+     * Its cells can't be modified.
+     * @return snapshot
+     */
+    public Arena snapshot() {
+        Arena copy = new Arena(WIDTH, HEIGHT, sparse);
+        copy.copyFrom(this);
+        copy.readOnly = true;
+        return copy;
+    }
+    
+    /**
+     * Returns whether this arena is an immutable snapshot.
+     * @return read only
+     */
+    public boolean isSnapshot() {
+        return readOnly;
+    }
+    
+    private void copyCells(Arena other) {
+        if (!listeners.isEmpty()) {
+            recordDiff(ArenaChange.Type.VISITED, visited, other.visited);
+            recordDiff(ArenaChange.Type.VICTIM, victims, other.victims);
+            recordDiff(ArenaChange.Type.HOSPITAL, hospitals, other.hospitals);
+        }
+
+        visited.copyFrom(other.visited);
+        victims.copyFrom(other.victims);
+        hospitals.copyFrom(other.hospitals);
+        victimIndex.fill(victims);
+        visitedCount = other.visitedCount;
+
+        // only words that hold set bits on either side can change
+        for (int w = nextWord(blocked, other.blocked, 0); w != -1; w = nextWord(blocked, other.blocked, w + 1)) {
+            long changed = blocked.getWord(w) ^ other.blocked.getWord(w);
+            blocked.setWord(w, other.blocked.getWord(w));
+
+            for (; changed != 0; changed &= changed - 1) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(changed);
+                blockedChanges.add(getCell(index));
+                record(ArenaChange.Type.BLOCKED, index, blocked.get(index));
+            }
+        }
+        obstacleIndex.fill(blocked);
+    }
+
+    /************************/
+    //       Locking        //
+    /************************/
+
+    private long writeLock() {
+        if (readOnly)
+            throw new IllegalStateException("Arena snapshots can't be modified");
+        return lock.writeLock();
+    }
+
+    /**
+     * Reads one bit optimistically, falling back to the read lock if a write got in the way.
+     */
+    private boolean read(BitStorage bits, int index) {
+        long stamp = lock.tryOptimisticRead();
+        boolean value = bits.get(index);
+        if (lock.validate(stamp))
+            return value;
+
+        stamp = lock.readLock();
+        try {
+            return bits.get(index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /************************/
+    //    Change Events     //
+    /************************/
+
+    /**
+     * Registers a listener for the changes of the arena.
+     * @param listener
+     */
+    public void addListener(ArenaListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ArenaListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Queues a change (called with the write lock held). Changes are only kept while someone listens.
+     * A second toggle of the same flag of the same cell cancels the first one.
+     */
+    private void record(ArenaChange.Type type, int index, boolean value) {
+        if (listeners.isEmpty())
+            return;
+
+        Long key = ((long) type.ordinal() << 32) | index;
+        if (pendingChanges.remove(key) == null)
+            pendingChanges.put(key, new ArenaChange(type, index / HEIGHT, index % HEIGHT, value));
+    }
+
+    private void recordDiff(ArenaChange.Type type, BitStorage mine, BitStorage theirs) {
+        for (int w = nextWord(mine, theirs, 0); w != -1; w = nextWord(mine, theirs, w + 1)) {
+            for (long changed = mine.getWord(w) ^ theirs.getWord(w); changed != 0; changed &= changed - 1) {
+                int index = (w << 6) + Long.numberOfTrailingZeros(changed);
+                record(type, index, theirs.get(index));
+            }
+        }
+    }
+
+    /**
+     * Hands the changes made since the last call to every listener, as one batch.
+     * Meant to be called once per tick (e.g. after each environment action) by the thread that writes.
+     */
+    public void publishChanges() {
+        List<ArenaChange> batch;
+
+        long stamp = lock.writeLock();
+        try {
+            if (pendingChanges.isEmpty())
+                return;
+            batch = new ArrayList<ArenaChange>(pendingChanges.values());
+            pendingChanges.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+
+        for (ArenaListener listener : listeners)
+            listener.arenaChanged(batch);
+    }
+
+    /************************/
+    //       Bitsets        //
+    /************************/
+
+    private static int nextWord(BitStorage a, BitStorage b, int w) {
+        int nextA = a.nextWord(w);
+        int nextB = b.nextWord(w);
+        if (nextA == -1)
+            return nextB;
+        if (nextB == -1)
+            return nextA;
+        return Math.min(nextA, nextB);
+    }
+    
+    /**
+     * Returns a Arena.Cell object. If it doesn't exists, it will return null.
+     * @param x
+     * @param y
+     * @return Object
+     */
+    public Cell getCell(int x, int y) {
+        if (x >= WIDTH || y >= HEIGHT || x < 0 || y < 0)
+            return null;
+        return new Cell(x, y);
+    }
+    
+    /**
+     * Returns the cell at the given index (x * HEIGHT + y).
+     * @param index
+     * @return Cell
+     */
+    public Cell getCell(int index) {
+        return new Cell(index / HEIGHT, index % HEIGHT);
+    }
+    
+    /**
+     * Returns whether the cell at the given index (x * HEIGHT + y) is blocked,
+     * without creating a Cell (for the planners' inner loops).
+     * @param index
+     * @return blocked
+     */
+    public boolean isBlocked(int index) {
+        return read(blocked, index);
+    }
+    
+    /**
+     * Returns the modification version of the arena layout.
+     * It is bumped every time the blocked state of a cell changes,
+     * so navigation structures can tell whether they are out of date.
+     * @return version
+     */
+    public int getVersion() {
+        long stamp = lock.readLock();
+        try {
+            return blockedChanges.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Returns the cells whose blocked state changed after the given version, oldest first.
+     * A cell appears once per change.
+     * @param version
+     * @return Changed cells
+     */
+    public List<Cell> getChangedCells(int version) {
+        long stamp = lock.readLock();
+        try {
+            return new ArrayList<Cell>(blockedChanges.subList(version, blockedChanges.size()));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Gets how many times the robot has visited the cells.
+     * @return num_visits
+     */
+    public int getNumVisits() {
+        long stamp = lock.readLock();
+        try {
+            return visitedCount;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Returns an array list of Arena.Cell objects. 
+     * These represent all the POSSIBLE victim cells on the current map instance.
+     * Read from the victim index, in cell index order.
+     * @return Possible Vicitm Cells List
+     */
+    public List calculatePossibleVictimCells() {
+        return toCells(victimIndex);
+    }
+    
+    /**
+     * Returns the number of possible victim cells.
+     * @return victim count
+     */
+    public int getNumVictims() {
+        long stamp = lock.readLock();
+        try {
+            return victimIndex.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Returns every blocked cell (obstacle) of the arena, in cell index order.
+     * @return Blocked cells
+     */
+    public List<Cell> getBlockedCells() {
+        return toCells(obstacleIndex);
+    }
+    
+    private List<Cell> toCells(IndexSet set) {
+        long stamp = lock.readLock();
+        try {
+            List<Cell> cells = new ArrayList<Cell>(set.size);
+            for (int i = 0; i < set.size; i++)
+                cells.add(getCell(set.indices[i]));
+            return cells;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Resolves the angle the robot should turn to face a cell.
+     * Assumes robot is turned towards the starting heading. (thus requires heading offset when used!)
+     * @param currentCell
+     * @param nextCell
+     * @return Rotation Angle
+     */
+    public float resolveMappedAngle(Arena.Cell currentCell, Arena.Cell nextCell) {
+        double dy = nextCell.y - currentCell.y;
+        double dx = nextCell.x - currentCell.x;
+
+        if (dy > 0 && dy != 0)
+            return FORWARD;
+
+        if (dx > 0 && dx != 0)
+            return RIGHT;
+
+        if (dy < 0 && dy != 0)
+            return BACKWARD;
+
+        if (dx < 0 && dx != 0)
+            return LEFT;
+
+        return -1;
+    }
+    
+    /**
+     * Returns each neighbour by using the heading of the robot.
+     * @param currentCell
+     * @param headingAngle
+     * @param direction
+     * @return The neighbour cell of which the heading refers to.
+     */
+    public Arena.Cell getNeighbourByHeading(Arena.Cell currentCell, float headingAngle, float direction) {
+        float actual_direction = (headingAngle + direction) % 360;
+
+        if (actual_direction == FORWARD)
+            return getCell(currentCell.x, currentCell.y + 1);
+
+        if (actual_direction == BACKWARD)
+            return getCell(currentCell.x, currentCell.y - 1);
+
+        if (actual_direction == LEFT)
+            return getCell(currentCell.x - 1, currentCell.y);
+
+        if (actual_direction == RIGHT)
+            return getCell(currentCell.x + 1, currentCell.y);
+
+        return null;
+    }
+    
+    /**
+     * Print method.
+     */
+    public void print() {
+        for (int row = 0; row < WIDTH; row++) {
+            for (int col = 0; col < HEIGHT; col++) {
+                getCell(row, col).print();
+            }
+        }
+    }
+}
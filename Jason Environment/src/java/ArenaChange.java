@@ -0,0 +1,30 @@
+/**
+ * A change of one flag of an arena cell, published to ArenaListeners in batches.
+ * @author group 16
+ */
+public class ArenaChange {
+    /**
+     * Flag of the cell that changed.
+     * @author group 16
+     */
+    public enum Type {
+        BLOCKED, VICTIM, VISITED, HOSPITAL
+    }
+
+    public final Type type;
+    public final int x;
+    public final int y;
+    public final boolean value; // new value of the flag
+
+    public ArenaChange(Type type, int x, int y, boolean value) {
+        this.type = type;
+        this.x = x;
+        this.y = y;
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return type + "(" + x + ", " + y + ")=" + value;
+    }
+}
@@ -0,0 +1,15 @@
+import java.util.List;
+
+/**
+ * Receives the changes made to an arena.
+ * Changes are delivered in batches by Arena.publishChanges, on the thread that publishes them.
+ * @author group 16
+ */
+public interface ArenaListener {
+    /**
+     * Called with the net changes since the previous batch, in the order they first happened.
+     * A flag that was toggled back to its old value within the batch is left out.
+     * @param changes
+     */
+    void arenaChanged(List<ArenaChange> changes);
+}
@@ -0,0 +1,54 @@
+import java.util.Random;
+
+/**
+ * Jittered exponential backoff between reconnection attempts.
+ * The ceiling doubles with every attempt (up to a cap) and the delay is drawn in its upper half,
+ * so retries back off quickly without several clients retrying in lock step.
+ * @author group 16
+ */
+public class Backoff {
+    private final long base;
+    private final long cap;
+    private final Random random = new Random();
+    private int attempt;
+
+    /**
+     * @param base Ceiling of the first delay (ms)
+     * @param cap Largest ceiling (ms)
+     */
+    public Backoff(long base, long cap) {
+        this.base = base;
+        this.cap = cap;
+    }
+
+    /**
+     * Returns the delay before the next attempt (ms) and counts the attempt.
+     */
+    public long nextDelay() {
+        long ceiling = Math.min(cap, base << Math.min(attempt, 30));
+        attempt++;
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling / 2));
+    }
+
+    /**
+     * Waits before the next attempt.
+     * @throws InterruptedException
+     */
+    public void pause() throws InterruptedException {
+        Thread.sleep(nextDelay());
+    }
+
+    /**
+     * Number of attempts since the last reset.
+     */
+    public int getAttempts() {
+        return attempt;
+    }
+
+    /**
+     * Starts over from the base delay (after a success).
+     */
+    public void reset() {
+        attempt = 0;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Storage for one bit per arena cell (indexed by x * HEIGHT + y), kept in 64 bit words.
+ * Implemented densely (DenseBitStorage) or as lazily allocated chunks (ChunkedBitStorage)
+ * for very large arenas that are mostly empty.
+ * @author group 16
+ */
+abstract class BitStorage {
+    /**
+     * Number of 64 bit words the storage spans.
+     * @return words
+     */
+    abstract int words();
+
+    abstract long getWord(int w);
+
+    abstract void setWord(int w, long word);
+
+    /**
+     * Returns the first word at or after w that may hold set bits, -1 if there is none.
+     * Implementations skip storage they know to be empty.
+     * @param w
+     * @return word number
+     */
+    abstract int nextWord(int w);
+
+    /**
+     * Clears every bit.
+     */
+    abstract void clear();
+
+    boolean get(int index) {
+        return (getWord(index >>> 6) & (1L << index)) != 0;
+    }
+
+    void set(int index, boolean value) {
+        int w = index >>> 6;
+        long word = getWord(w);
+        long updated = value ? word | (1L << index) : word & ~(1L << index);
+        if (updated != word)
+            setWord(w, updated);
+    }
+
+    /**
+     * Overwrites this storage with the bits of another one of the same size.
+     * @param other
+     */
+    void copyFrom(BitStorage other) {
+        clear();
+        for (int w = other.nextWord(0); w != -1; w = other.nextWord(w + 1))
+            setWord(w, other.getWord(w));
+    }
+
+    /**
+     * Counts the set bits.
+     * @return cardinality
+     */
+    int cardinality() {
+        int total = 0;
+        for (int w = nextWord(0); w != -1; w = nextWord(w + 1))
+            total += Long.bitCount(getWord(w));
+        return total;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Bit storage split into fixed size chunks that are only allocated on the first write of
+ * a set bit. A missing chunk reads as all zero (unknown/free cells), so large arenas only
+ * pay for the regions that actually hold something.
+ * @author group 16
+ */
+class ChunkedBitStorage extends BitStorage {
+    // 64 words = 4096 cells per chunk
+    static final int CHUNK_SHIFT = 6;
+    static final int CHUNK_WORDS = 1 << CHUNK_SHIFT;
+
+    private final int words;
+    private final long[][] chunks;
+
+    ChunkedBitStorage(int cells) {
+        this.words = (cells + 63) >>> 6;
+        this.chunks = new long[(words + CHUNK_WORDS - 1) >>> CHUNK_SHIFT][];
+    }
+
+    int words() {
+        return words;
+    }
+
+    long getWord(int w) {
+        long[] chunk = chunks[w >>> CHUNK_SHIFT];
+        return chunk == null ? 0 : chunk[w & (CHUNK_WORDS - 1)];
+    }
+
+    void setWord(int w, long word) {
+        long[] chunk = chunks[w >>> CHUNK_SHIFT];
+        if (chunk == null) {
+            if (word == 0)
+                return;
+            chunk = chunks[w >>> CHUNK_SHIFT] = new long[CHUNK_WORDS];
+        }
+        chunk[w & (CHUNK_WORDS - 1)] = word;
+    }
+
+    int nextWord(int w) {
+        for (int c = w >>> CHUNK_SHIFT; c < chunks.length; c++) {
+            if (chunks[c] != null) {
+                int first = Math.max(w, c << CHUNK_SHIFT);
+                return first < words ? first : -1;
+            }
+        }
+        return -1;
+    }
+
+    void clear() {
+        for (int c = 0; c < chunks.length; c++)
+            chunks[c] = null;
+    }
+
+    @Override
+    void copyFrom(BitStorage other) {
+        if (!(other instanceof ChunkedBitStorage)) {
+            super.copyFrom(other);
+            return;
+        }
+
+        long[][] source = ((ChunkedBitStorage) other).chunks;
+        for (int c = 0; c < chunks.length; c++) {
+            if (source[c] == null)
+                chunks[c] = null;
+            else if (chunks[c] == null)
+                chunks[c] = source[c].clone();
+            else
+                System.arraycopy(source[c], 0, chunks[c], 0, CHUNK_WORDS);
+        }
+    }
+
+    /**
+     * Returns how many chunks have been allocated.
+     * @return chunks
+     */
+    int getAllocatedChunks() {
+        int allocated = 0;
+        for (long[] chunk : chunks)
+            if (chunk != null)
+                allocated++;
+        return allocated;
+    }
+}
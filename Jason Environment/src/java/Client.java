@@ -1,136 +1,559 @@
-import java.util.ArrayList;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.OutputStream;
-import java.net.ConnectException;
-import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.logging.*;
-
-/**
- * Client class abstraction used for networking with the jason environment.
- * @author group 16
- */
-public class Client {
-    private Logger logger;
-    private String serverIp;
-    private int serverPort;
-    
-    private ServerSocket server;
-    private Socket clientSocket;
-    private OutputStream outputStream;
-    private InputStream inputStream;
-    private ObjectInputStream ois;
-    private ObjectOutputStream oos;
-
-    public Client(String serverIp, int serverPort, Logger logger) throws IOException {
-        this.logger     = logger;
-        this.serverIp   = serverIp;
-        this.serverPort = serverPort;
-    }
-    
-    /**
-     * This method will attempt to connect with the server socket.
-     * Will continuously try to connect.
-     */
-    public void connect() {
-        int i = 0;
-        connector: while (true) {
-            this.clientSocket = new Socket();
-            System.out.println("Attempt: " + (i++));
-            try {
-                clientSocket.connect(new InetSocketAddress(serverIp, serverPort), 2000);
-                this.outputStream = clientSocket.getOutputStream();
-                this.inputStream = clientSocket.getInputStream();
-                this.ois = new ObjectInputStream(inputStream);
-                this.oos = new ObjectOutputStream(outputStream);
-                break connector; // break out of the while loop
-            } catch (IOException e) {
-                System.out.println(e.getMessage());
-            }
-
-            try {
-                clientSocket.close();
-            } catch (Throwable x) {
-                // ignore
-            }
-
-            // System.out.println("Unable to connect to server ");
-
-            try {
-                Thread.sleep(2000);
-            } catch (InterruptedException e1) {
-                // ignore
-            }
-        }
-    }
-    
-    /**
-     * Sends an instruction to the robot.
-     * IS BLOCKING - WILL RETURN VALUES
-     * @param txt
-     * @return Return value (precepts) by the Ev3 Brick
-     */
-    public String sendInstruction(String txt) {
-        logger.info("Sending Instruction: " + txt);
-        return ((String) send(txt));
-    }
-    
-    /**
-     * Sends a list of instructions to the robot.
-     * IS BLOCKING - WILL RETURN VALUES
-     * @param set
-     * @return Return value (precepts) by the Ev3 Brick
-     */
-    public String sendInstructions(ArrayList<String> set) {
-        logger.info("Sending Instructions set! Size: " + set.size());
-        return ((String) send(set));
-    }
-    
-    /**
-     * Wrapper for write object.
-     * @param obj
-     * @return
-     */
-    public Object send(Object obj) {
-        Object returnValue = null;
-        try {
-            oos.writeObject(obj);
-            logger.info("Waiting for completed flag.");
-            returnValue = read();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
-        }
-
-        logger.info("Action completed by Ev3 Brick - Return value: " + ((String) returnValue));
-        return returnValue;
-    }
-    
-    /** 
-     * Blocking method that will wait until it reads something.
-     * @return
-     * @throws ClassNotFoundException
-     * @throws IOException
-     */
-    public Object read() throws ClassNotFoundException, IOException {
-        Object o = ois.readObject();
-        return o;
-    }
-
-    /**
-     * Clean up method.
-     */
-    public void close() {
-        try {
-            clientSocket.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-}
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import java.util.logging.*;
+
+/**
+ * Client class abstraction used for networking with the jason environment.
+ * With the binary protocol the connection belongs to a session: if it drops, the client reconnects
+ * with jittered exponential backoff, resumes the session and sends again the requests still in flight
+ * (the brick executes each request at most once).
+ * @author group 16
+ */
+public class Client {
+    // ms to wait for a legacy server's object stream header before saying HELLO
+    public static int LEGACY_HEADER_TIMEOUT = 300;
+
+    // Reconnection
+    public static final long BACKOFF_BASE      = 250;   // ms
+    public static final long BACKOFF_CAP       = 8000;  // ms
+    public static final long RECONNECT_TIMEOUT = 60000; // ms before the requests in flight are given up
+
+    /**
+     * A request sent and not answered yet.
+     * @author group 16
+     */
+    private static class PendingRequest {
+        final int id;
+        final List<Protocol.Command> commands;
+        final CompletableFuture<Object[]> future;
+        final RouteListener listener; // route requests only
+        int steps;                    // route steps reported so far
+
+        PendingRequest(int id, List<Protocol.Command> commands, CompletableFuture<Object[]> future, RouteListener listener) {
+            this.id = id;
+            this.commands = commands;
+            this.future = future;
+            this.listener = listener;
+        }
+
+        /**
+         * Reports the steps up to the given one that weren't reported yet.
+         * Progress lost while reconnecting is caught up with the next frame (or the reply).
+         */
+        void progress(int step) {
+            while (listener != null && steps <= step)
+                listener.stepCompleted(steps++);
+        }
+    }
+
+    private Logger logger;
+    private String serverIp;
+    private int serverPort;
+    
+    private ServerSocket server;
+    private Socket clientSocket;
+    private OutputStream outputStream;
+    private InputStream inputStream;
+    private ObjectInputStream ois;
+    private ObjectOutputStream oos;
+    private DataInputStream dis;
+    private DataOutputStream dos;
+    private boolean binary;
+    private final byte role;
+
+    // session (binary protocol); requests are numbered in the session, under the write lock
+    private final Object writeLock = new Object();
+    private long session;
+    private int nextSequence;
+    private boolean connected;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    // requests in flight in sequence order, completed by the reply reader
+    private final ConcurrentSkipListMap<Integer, PendingRequest> pending = new ConcurrentSkipListMap<Integer, PendingRequest>();
+    private Thread replyReader;
+    // runs the requests of a legacy session one at a time (it can't pipeline)
+    private ExecutorService legacyExecutor;
+
+    public Client(String serverIp, int serverPort, Logger logger) throws IOException {
+        this(serverIp, serverPort, logger, Protocol.CONTROL);
+    }
+
+    /**
+     * @param serverIp
+     * @param serverPort
+     * @param logger
+     * @param role Protocol.CONTROL to drive the robot, Protocol.MONITOR for a read only session
+     *             (queries only, answered even while the robot moves)
+     * @throws IOException
+     */
+    public Client(String serverIp, int serverPort, Logger logger, byte role) throws IOException {
+        this.logger     = logger;
+        this.serverIp   = serverIp;
+        this.serverPort = serverPort;
+        this.role       = role;
+    }
+    
+    /**
+     * This method will attempt to connect with the server socket.
+     * Will continuously try to connect, backing off between attempts.
+     */
+    public void connect() {
+        Backoff backoff = new Backoff(BACKOFF_BASE, BACKOFF_CAP);
+        while (true) {
+            System.out.println("Attempt: " + backoff.getAttempts());
+            try {
+                open();
+                negotiate();
+                return;
+            } catch (IOException e) {
+                System.out.println(e.getMessage());
+                closeSocket();
+            }
+
+            try {
+                backoff.pause();
+            } catch (InterruptedException e1) {
+                // ignore
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        this.clientSocket = new Socket();
+        clientSocket.connect(new InetSocketAddress(serverIp, serverPort), 2000);
+        clientSocket.setTcpNoDelay(true);
+        this.outputStream = clientSocket.getOutputStream();
+        this.inputStream = clientSocket.getInputStream();
+    }
+
+    private void closeSocket() {
+        try {
+            if (clientSocket != null)
+                clientSocket.close();
+        } catch (Throwable x) {
+            // ignore
+        }
+    }
+    
+    /**
+     * Picks the protocol of the session.
+     * A legacy server writes its object stream header as soon as it accepts; a binary server waits
+     * for our HELLO. So if nothing arrives for a moment we say HELLO and speak the binary protocol.
+     * @throws IOException
+     */
+    private void negotiate() throws IOException {
+        PushbackInputStream pis = new PushbackInputStream(inputStream, 1);
+
+        int first = -1;
+        clientSocket.setSoTimeout(LEGACY_HEADER_TIMEOUT);
+        try {
+            first = pis.read();
+        } catch (SocketTimeoutException e) {
+            // binary server, waiting for HELLO
+        }
+        clientSocket.setSoTimeout(0);
+
+        if (first != -1) {
+            pis.unread(first);
+            this.binary = false;
+            this.ois = new ObjectInputStream(pis);
+            this.oos = new ObjectOutputStream(outputStream);
+            this.legacyExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ev3-requests");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            logger.info("Connected using the legacy object stream protocol.");
+            return;
+        }
+
+        synchronized (writeLock) {
+            handshake(pis);
+            this.binary = true;
+            this.connected = true;
+        }
+        startReplyReader();
+        logger.info("Connected using the binary protocol (v" + Protocol.VERSION + "), session " + Long.toHexString(session) + ".");
+    }
+
+    /**
+     * Says HELLO with the session to resume (none the first time).
+     * @param in Input of the new connection
+     * @return Sequence number of the last request the brick executed, -1 if the session was not resumed
+     * @throws IOException
+     */
+    private int handshake(InputStream in) throws IOException {
+        DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(outputStream));
+        Protocol.writeSessionHello(dout, session, role);
+
+        if (din.readInt() != Protocol.MAGIC)
+            throw new IOException("Unexpected handshake from the Ev3 Brick");
+        int version = Protocol.readHelloVersion(din);
+        if (version != Protocol.VERSION)
+            throw new IOException("Ev3 Brick speaks protocol v" + version + ", expected v" + Protocol.VERSION);
+
+        long accepted = din.readLong();
+        int lastSequence = din.readInt();
+        boolean resumed = role == Protocol.MONITOR || (session != 0 && accepted == session); // queries can be sent again
+
+        this.session = accepted;
+        this.dis = din;
+        this.dos = dout;
+        return resumed ? lastSequence : -1;
+    }
+
+    /**
+     * Reconnects after the connection dropped, resumes the session and sends again the requests
+     * still in flight (in order). Gives up, failing them, after RECONNECT_TIMEOUT.
+     * Called by the reply reader.
+     * @param cause
+     * @return true if reconnected
+     */
+    private boolean reconnect(IOException cause) {
+        synchronized (writeLock) {
+            connected = false;
+        }
+        closeSocket();
+        logger.warning("Connection to the Ev3 Brick lost (" + cause + "), reconnecting...");
+
+        Backoff backoff = new Backoff(BACKOFF_BASE, BACKOFF_CAP);
+        long deadline = System.currentTimeMillis() + RECONNECT_TIMEOUT;
+
+        while (!closed && System.currentTimeMillis() < deadline) {
+            try {
+                backoff.pause();
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            try {
+                open();
+                int resent = 0;
+                synchronized (writeLock) {
+                    if (handshake(inputStream) < 0) {
+                        failPending(new IOException("The Ev3 Brick lost the session (restarted?)"));
+                    } else {
+                        for (PendingRequest request : pending.values()) {
+                            Protocol.writeRequest(dos, request.id, request.commands);
+                            resent++;
+                        }
+                    }
+                    connected = true;
+                }
+                logger.info("Reconnected after " + backoff.getAttempts() + " attempt(s), " + resent + " request(s) sent again.");
+                return true;
+            } catch (IOException e) {
+                closeSocket();
+            }
+        }
+
+        failure = cause;
+        failPending(cause);
+        return false;
+    }
+
+    /**
+     * Starts the thread completing the requests in flight as their replies arrive.
+     */
+    private void startReplyReader() {
+        replyReader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Protocol.Reply reply = Protocol.readReply(dis);
+                        if (reply.isProgress()) {
+                            PendingRequest request = pending.get(reply.id);
+                            if (request != null)
+                                request.progress(reply.step);
+                            continue;
+                        }
+
+                        PendingRequest request = pending.remove(reply.id);
+
+                        if (request == null) {
+                            logger.warning("Reply to unknown request #" + reply.id);
+                        } else {
+                            logger.info("Action completed by Ev3 Brick - #" + reply.id + " Return values: "
+                                    + Arrays.toString(reply.values));
+                            if (request.listener != null && reply.values.length > 0 && reply.values[0] instanceof Float)
+                                request.progress(((Float) reply.values[0]).intValue() - 1);
+                            request.future.complete(reply.values);
+                        }
+                    } catch (IOException e) {
+                        if (closed || !reconnect(e))
+                            return;
+                    }
+                }
+            }
+        }, "ev3-replies");
+        replyReader.setDaemon(true);
+        replyReader.start();
+    }
+
+    /**
+     * Fails every request in flight (they can't be answered any more).
+     * @param e
+     */
+    private void failPending(IOException e) {
+        Map.Entry<Integer, PendingRequest> entry;
+        while ((entry = pending.pollFirstEntry()) != null)
+            entry.getValue().future.completeExceptionally(e);
+    }
+
+    /**
+     * Returns whether the session speaks the binary protocol.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Sends an instruction to the robot.
+     * IS BLOCKING - WILL RETURN VALUES
+     * @param txt
+     * @return Return value (precepts) by the Ev3 Brick
+     */
+    public String sendInstruction(String txt) {
+        logger.info("Sending Instruction: " + txt);
+
+        if (!binary)
+            return ((String) send(txt));
+
+        Protocol.Command command = Protocol.Command.parse(txt);
+        if (command == null)
+            return "ERROR";
+
+        Object[] values = request(command);
+        if (values == null)
+            return null;
+        return values[0] == null ? "DEFAULT" : values[0].toString();
+    }
+    
+    /**
+     * Sends a list of instructions to the robot.
+     * IS BLOCKING - WILL RETURN VALUES
+     * @param set
+     * @return Return value (precepts) by the Ev3 Brick
+     */
+    public String sendInstructions(ArrayList<String> set) {
+        logger.info("Sending Instructions set! Size: " + set.size());
+
+        if (!binary)
+            return ((String) send(set));
+
+        // unknown commands aren't sent, they answer "ERROR" in place like on the legacy protocol
+        Protocol.Command[] parsed = new Protocol.Command[set.size()];
+        ArrayList<Protocol.Command> known = new ArrayList<Protocol.Command>(parsed.length);
+        for (int i = 0; i < parsed.length; i++) {
+            parsed[i] = Protocol.Command.parse(set.get(i));
+            if (parsed[i] != null)
+                known.add(parsed[i]);
+        }
+
+        Object[] replies = new Object[0];
+        if (!known.isEmpty()) {
+            replies = request(known.toArray(new Protocol.Command[known.size()]));
+            if (replies == null)
+                return null;
+        }
+
+        Object[] values = new Object[parsed.length];
+        for (int i = 0, r = 0; i < values.length; i++) {
+            Object value = parsed[i] == null ? "ERROR" : replies[r++];
+            values[i] = value == null ? "DEFAULT" : value;
+        }
+
+        return Arrays.toString(values);
+    }
+
+    /**
+     * Sends a batch of commands to the robot and returns one typed value per command.
+     * IS BLOCKING - WILL RETURN VALUES
+     * @param commands
+     * @return Values returned by the Ev3 Brick (String, Float or null), null if the request failed
+     */
+    public Object[] request(Protocol.Command... commands) {
+        try {
+            return requestAsync(commands).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Sends a batch of commands to the robot without waiting for it to be executed.
+     * Several requests can be in flight: the brick executes them in the order they were sent and
+     * each future completes as soon as its reply arrives. A request in flight when the connection
+     * drops is sent again once reconnected; it fails only if the session can't be resumed.
+     * @param commands
+     * @return Future of the values returned by the Ev3 Brick (String, Float or null)
+     */
+    public CompletableFuture<Object[]> requestAsync(final Protocol.Command... commands) {
+        return submit(null, commands);
+    }
+
+    /**
+     * Uploads a route as one program: the brick drives all of it without waiting on the network
+     * and reports the progress after every step (MOVE).
+     * Needs the binary protocol (check isBinary()).
+     * @param program Commands of the route
+     * @param listener Told about every step completed, in order
+     * @return Future of the number of steps completed (Float, as the only value)
+     */
+    public CompletableFuture<Object[]> requestRoute(List<Protocol.Command> program, RouteListener listener) {
+        if (!binary)
+            throw new IllegalStateException("The legacy protocol can't run routes");
+        return submit(listener, Protocol.Command.of(Protocol.ROUTE, program));
+    }
+
+    private CompletableFuture<Object[]> submit(RouteListener listener, final Protocol.Command... commands) {
+        for (Protocol.Command command : commands)
+            if (command == null)
+                throw new IllegalArgumentException("Unknown command");
+        // checked before it is pending: it could never be sent, and would be sent again on every reconnect
+        Protocol.checkRequest(Arrays.asList(commands));
+
+        if (!binary) {
+            return CompletableFuture.supplyAsync(new Supplier<Object[]>() {
+                @Override
+                public Object[] get() {
+                    return requestLegacy(commands);
+                }
+            }, legacyExecutor);
+        }
+
+        CompletableFuture<Object[]> future = new CompletableFuture<Object[]>();
+        if (failure != null) {
+            future.completeExceptionally(failure);
+            return future;
+        }
+
+        List<Protocol.Command> list = Arrays.asList(commands);
+        synchronized (writeLock) {
+            int id = ++nextSequence;
+            pending.put(id, new PendingRequest(id, list, future, listener));
+            logger.info("Sending #" + id + " " + commands.length + " command(s): " + list);
+
+            if (connected) {
+                try {
+                    Protocol.writeRequest(dos, id, list);
+                } catch (IOException e) {
+                    // the reply reader notices the broken connection and sends the request again
+                    connected = false;
+                    closeSocket();
+                }
+            }
+        }
+
+        return future;
+    }
+
+    /**
+     * Returns the number of requests sent and not answered yet.
+     */
+    public int getPendingRequests() {
+        return pending.size();
+    }
+
+    /**
+     * Sends typed commands to a legacy server as text and splits its reply.
+     * @param commands
+     * @return Values returned by the Ev3 Brick (as text)
+     */
+    private Object[] requestLegacy(Protocol.Command[] commands) {
+        ArrayList<String> set = new ArrayList<String>(commands.length);
+        for (Protocol.Command command : commands)
+            set.add(command.toString());
+
+        logger.info("Sending " + commands.length + " command(s): " + Arrays.toString(commands));
+        String reply = (String) send(set);
+        if (reply == null)
+            throw new CompletionException(new IOException("No reply from the Ev3 Brick"));
+
+        String[] values = reply.substring(1, reply.length() - 1).split(", ", -1);
+        return values;
+    }
+    
+    /**
+     * Wrapper for write object.
+     * @param obj
+     * @return
+     */
+    public Object send(Object obj) {
+        Object returnValue = null;
+        try {
+            oos.writeObject(obj);
+            oos.reset(); // don't let the handle table grow for the whole run
+            logger.info("Waiting for completed flag.");
+            returnValue = read();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+
+        logger.info("Action completed by Ev3 Brick - Return value: " + ((String) returnValue));
+        return returnValue;
+    }
+    
+    /** 
+     * Blocking method that will wait until it reads something.
+     * @return
+     * @throws ClassNotFoundException
+     * @throws IOException
+     */
+    public Object read() throws ClassNotFoundException, IOException {
+        Object o = ois.readObject();
+        return o;
+    }
+
+    /**
+     * Clean up method.
+     */
+    public void close() {
+        closed = true;
+        if (legacyExecutor != null)
+            legacyExecutor.shutdown();
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        failure = new IOException("Client closed");
+        failPending(failure);
+    }
+
+}
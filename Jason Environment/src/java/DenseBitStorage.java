@@ -0,0 +1,54 @@
+import java.util.Arrays;
+
+/**
+ * Bit storage backed by a single long array covering every cell.
+ * @author group 16
+ */
+class DenseBitStorage extends BitStorage {
+    private final long[] bits;
+
+    DenseBitStorage(int cells) {
+        this.bits = new long[(cells + 63) >>> 6];
+    }
+
+    int words() {
+        return bits.length;
+    }
+
+    long getWord(int w) {
+        return bits[w];
+    }
+
+    void setWord(int w, long word) {
+        bits[w] = word;
+    }
+
+    int nextWord(int w) {
+        return w < bits.length ? w : -1;
+    }
+
+    void clear() {
+        Arrays.fill(bits, 0);
+    }
+
+    @Override
+    boolean get(int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    void set(int index, boolean value) {
+        if (value)
+            bits[index >>> 6] |= 1L << index;
+        else
+            bits[index >>> 6] &= ~(1L << index);
+    }
+
+    @Override
+    void copyFrom(BitStorage other) {
+        if (other instanceof DenseBitStorage)
+            System.arraycopy(((DenseBitStorage) other).bits, 0, bits, 0, bits.length);
+        else
+            super.copyFrom(other);
+    }
+}
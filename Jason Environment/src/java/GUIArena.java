@@ -1,182 +1,243 @@
-import javax.swing.JFrame;
-import java.awt.GridLayout;
-import javax.swing.JPanel;
-
-import javax.swing.JButton;
-import java.awt.Color;
-import java.awt.Label;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.awt.Font;
-import javax.swing.JTextArea;
-
-/**
- * Main GUI Class for the arena
- * 
- * @author group 16
- */
-public class GUIArena {
-    private Arena.Cell currentPosition;
-    private float currentHeading;
-    private final Arena arena;
-    private String status;
-    private String vr;
-    private String vrm;
-
-    private GUIArenaCell[][] gridButtons;
-    private Arena.Cell goalCell;
-    private JFrame frame;
-    private JPanel headerPanel;
-    private Label title;
-    private JPanel gridPanel;
-    private JTextArea textArea;
-
-    public GUIArena(Arena arena) {
-        this.arena           = arena;
-        this.currentPosition = arena.getCell(0, 0);
-        this.status			 = "Initialising";
-        this.vr 			 = "0";
-        this.vrm 			 = "0";
-
-        initialize();
-        frame.setVisible(true);
-    }
-
-    public class GUIArenaCell {
-        final Arena.Cell cell;
-        final JButton button;
-
-        public GUIArenaCell(Arena.Cell cell, JButton button) {
-            this.cell = cell;
-            this.button = button;
-        }
-    }
-
-    private void setLooks(GUIArenaCell guiCell) {
-        JButton button = guiCell.button;
-        Arena.Cell cell = guiCell.cell;
-
-        button.setBackground(Color.WHITE);
-
-        if (cell.x == 0 && cell.y == 0) {
-            button.setBackground(Color.YELLOW);
-            button.setText("Hospital");
-        }
-
-        if (cell.hasVictim()) {
-            button.setBackground(Color.GRAY);
-            button.setText("?");
-        }
-
-        if (cell.isBlocked())
-            button.setBackground(Color.BLACK);
-
-        if (cell.isVisited())
-            button.setBackground(Color.LIGHT_GRAY);
-
-        if (cell == goalCell)
-            button.setBackground(Color.RED);
-
-        if (cell == currentPosition)
-            button.setBackground(Color.PINK);
-    }
-
-    private void updateInfo() {
-        textArea.setText("Current Position: Vector(" + currentPosition.x + ", " + currentPosition.y
-                + ") | Current Heading: " + currentHeading + "\n" + "Victims Recovered: " + vr
-                + " | Victims Remembered: " + vrm + " | Goal Cell: Cell(" + (goalCell == null ? "N/A" : goalCell.x)
-                + ", " + (goalCell == null ? "N/A" : goalCell.y) + ")\n" + "Status: " + status + "\n");
-    }
-
-    private void initialize() {
-        int w = arena.WIDTH;
-        int h = arena.HEIGHT;
-
-        frame = new JFrame();
-        frame.setBounds(100, 100, 750, 653);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        frame.getContentPane().setLayout(null);
-
-        headerPanel = new JPanel();
-        headerPanel.setBounds(0, 0, 884, 81);
-        frame.getContentPane().add(headerPanel);
-        headerPanel.setLayout(null);
-
-        title = new Label("Group 16 - COMP329");
-        title.setAlignment(Label.CENTER);
-        title.setFont(new Font("Dialog", Font.PLAIN, 60));
-        title.setBounds(10, 10, 713, 61);
-        headerPanel.add(title);
-
-        gridPanel = new JPanel();
-        gridPanel.setBounds(10, 140, 714, 463);
-        frame.getContentPane().add(gridPanel);
-        gridPanel.setLayout(new GridLayout(6, 6, 0, 0));
-
-        textArea = new JTextArea();
-        textArea.setBounds(10, 80, 714, 59);
-        frame.getContentPane().add(textArea);
-
-        gridButtons = new GUIArenaCell[w][h];
-
-        updateInfo();
-
-        for (int x = 0; x < w; x++) {
-            for (int y = 0; y < h; y++) {
-                final Arena.Cell cell = arena.getCell(x, y);
-                JButton button = new JButton();
-
-                button.addActionListener(new ActionListener() {
-                    @Override
-                    public void actionPerformed(ActionEvent e) {
-                        GUICellInfo guiCellInfo = new GUICellInfo(cell);
-                    }
-                });
-
-                gridButtons[x][y] = new GUIArenaCell(cell, button);
-                gridPanel.add(gridButtons[x][y].button);
-
-                setLooks(gridButtons[x][y]);
-            }
-        }
-    }
-
-    public void update() {
-        int w = arena.WIDTH;
-        int h = arena.HEIGHT;
-
-        updateInfo();
-
-        for (int x = 0; x < w; x++) {
-            for (int y = 0; y < h; y++) {
-                setLooks(gridButtons[x][y]);
-            }
-        }
-    }
-
-    public void setCurrentPosition(Arena.Cell pos, float currentHeading) {
-        this.currentPosition = pos;
-        this.currentHeading = currentHeading;
-        update();
-    }
-
-    public void setStatus(String status) {
-        this.status = status;
-        update();
-    }
-
-    public void setVictimsRecovered(String vr) {
-        this.vr = vr;
-        update();
-    }
-
-    public void setVictimsRemembered(String vrm) {
-        this.vrm = vrm;
-        update();
-    }
-
-    public void setGoalCell(Arena.Cell goalCell) {
-        this.goalCell = goalCell;
-        update();
-    }
-}
+import javax.swing.JFrame;
+import java.awt.GridLayout;
+import javax.swing.JPanel;
+
+import javax.swing.JButton;
+import java.awt.Color;
+import java.awt.Label;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.Font;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Main GUI Class for the arena
+ * 
+ * @author group 16
+ */
+public class GUIArena {
+    private Arena.Cell currentPosition;
+    private float currentHeading;
+    private final Arena arena;
+    private String status;
+    private String vr;
+    private String vrm;
+
+    private GUIArenaCell[][] gridButtons;
+    private Arena.Cell goalCell;
+    private JFrame frame;
+    private JPanel headerPanel;
+    private Label title;
+    private JPanel gridPanel;
+    private JTextArea textArea;
+
+    public GUIArena(Arena arena) {
+        this.arena           = arena;
+        this.currentPosition = arena.getCell(0, 0);
+        this.status			 = "Initialising";
+        this.vr 			 = "0";
+        this.vrm 			 = "0";
+
+        initialize();
+        frame.setVisible(true);
+
+        // only the cells that changed are restyled
+        arena.addListener(new ArenaListener() {
+            @Override
+            public void arenaChanged(List<ArenaChange> changes) {
+                List<Arena.Cell> cells = new ArrayList<Arena.Cell>(changes.size());
+                for (ArenaChange change : changes)
+                    cells.add(GUIArena.this.arena.getCell(change.x, change.y));
+                restyle(cells);
+            }
+        });
+    }
+
+    public class GUIArenaCell {
+        final Arena.Cell cell;
+        final JButton button;
+
+        public GUIArenaCell(Arena.Cell cell, JButton button) {
+            this.cell = cell;
+            this.button = button;
+        }
+    }
+
+    private static boolean samePosition(Arena.Cell a, Arena.Cell b) {
+        return b != null && a.x == b.x && a.y == b.y;
+    }
+
+    /**
+     * Styles a button from the state of its cell in the given arena (a snapshot of the live one).
+     * @param guiCell
+     * @param view
+     * @param goalCell
+     * @param currentPosition
+     */
+    private void setLooks(GUIArenaCell guiCell, Arena view, Arena.Cell goalCell, Arena.Cell currentPosition) {
+        JButton button = guiCell.button;
+        Arena.Cell cell = view.getCell(guiCell.cell.x, guiCell.cell.y);
+
+        button.setBackground(Color.WHITE);
+
+        if (cell.x == 0 && cell.y == 0) {
+            button.setBackground(Color.YELLOW);
+            button.setText("Hospital");
+        }
+
+        if (cell.hasVictim()) {
+            button.setBackground(Color.GRAY);
+            button.setText("?");
+        }
+
+        if (cell.isBlocked())
+            button.setBackground(Color.BLACK);
+
+        if (cell.isVisited())
+            button.setBackground(Color.LIGHT_GRAY);
+
+        if (samePosition(cell, goalCell))
+            button.setBackground(Color.RED);
+
+        if (samePosition(cell, currentPosition))
+            button.setBackground(Color.PINK);
+    }
+
+    private String infoText() {
+        return "Current Position: Vector(" + currentPosition.x + ", " + currentPosition.y
+                + ") | Current Heading: " + currentHeading + "\n" + "Victims Recovered: " + vr
+                + " | Victims Remembered: " + vrm + " | Goal Cell: Cell(" + (goalCell == null ? "N/A" : goalCell.x)
+                + ", " + (goalCell == null ? "N/A" : goalCell.y) + ")\n" + "Status: " + status + "\n";
+    }
+
+    private void initialize() {
+        int w = arena.WIDTH;
+        int h = arena.HEIGHT;
+
+        frame = new JFrame();
+        frame.setBounds(100, 100, 750, 653);
+        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.getContentPane().setLayout(null);
+
+        headerPanel = new JPanel();
+        headerPanel.setBounds(0, 0, 884, 81);
+        frame.getContentPane().add(headerPanel);
+        headerPanel.setLayout(null);
+
+        title = new Label("Group 16 - COMP329");
+        title.setAlignment(Label.CENTER);
+        title.setFont(new Font("Dialog", Font.PLAIN, 60));
+        title.setBounds(10, 10, 713, 61);
+        headerPanel.add(title);
+
+        gridPanel = new JPanel();
+        gridPanel.setBounds(10, 140, 714, 463);
+        frame.getContentPane().add(gridPanel);
+        gridPanel.setLayout(new GridLayout(6, 6, 0, 0));
+
+        textArea = new JTextArea();
+        textArea.setBounds(10, 80, 714, 59);
+        frame.getContentPane().add(textArea);
+
+        gridButtons = new GUIArenaCell[w][h];
+
+        textArea.setText(infoText());
+
+        for (int x = 0; x < w; x++) {
+            for (int y = 0; y < h; y++) {
+                final Arena.Cell cell = arena.getCell(x, y);
+                JButton button = new JButton();
+
+                button.addActionListener(new ActionListener() {
+                    @Override
+                    public void actionPerformed(ActionEvent e) {
+                        GUICellInfo guiCellInfo = new GUICellInfo(cell);
+                    }
+                });
+
+                gridButtons[x][y] = new GUIArenaCell(cell, button);
+                gridPanel.add(gridButtons[x][y].button);
+
+                setLooks(gridButtons[x][y], arena, goalCell, currentPosition);
+            }
+        }
+    }
+
+    /**
+     * Redraws the arena. The state is captured on the calling thread (the arena as a snapshot)
+     * and drawn later on the Swing event thread, so the arena can keep changing meanwhile.
+     */
+    public void update() {
+        final Arena view = arena.snapshot();
+        final Arena.Cell goal = goalCell;
+        final Arena.Cell position = currentPosition;
+        final String info = infoText();
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                textArea.setText(info);
+
+                for (int x = 0; x < view.WIDTH; x++) {
+                    for (int y = 0; y < view.HEIGHT; y++) {
+                        setLooks(gridButtons[x][y], view, goal, position);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Redraws the info text and the given cells (null entries are skipped) on the Swing event thread.
+     * @param cells
+     */
+    private void restyle(final List<Arena.Cell> cells) {
+        final Arena.Cell goal = goalCell;
+        final Arena.Cell position = currentPosition;
+        final String info = infoText();
+
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                textArea.setText(info);
+
+                for (Arena.Cell cell : cells)
+                    if (cell != null)
+                        setLooks(gridButtons[cell.x][cell.y], arena, goal, position);
+            }
+        });
+    }
+
+    public void setCurrentPosition(Arena.Cell pos, float currentHeading) {
+        Arena.Cell previous = this.currentPosition;
+        this.currentPosition = pos;
+        this.currentHeading = currentHeading;
+        restyle(Arrays.asList(previous, pos));
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+        restyle(Collections.<Arena.Cell>emptyList());
+    }
+
+    public void setVictimsRecovered(String vr) {
+        this.vr = vr;
+        restyle(Collections.<Arena.Cell>emptyList());
+    }
+
+    public void setVictimsRemembered(String vrm) {
+        this.vrm = vrm;
+        restyle(Collections.<Arena.Cell>emptyList());
+    }
+
+    public void setGoalCell(Arena.Cell goalCell) {
+        Arena.Cell previous = this.goalCell;
+        this.goalCell = goalCell;
+        restyle(Arrays.asList(previous, goalCell));
+    }
+}
@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Evaluates the paths to several candidate goals and keeps the shortest one.
+ * Each candidate is searched separately with jump point search, in order of Manhattan
+ * distance (a lower bound on the path length) from a ManhattanIndex. Candidates stop
+ * being searched as soon as the shortest path found is shorter than the next lower bound.
+ * When a parallelism above 1 is given, candidates are searched in batches concurrently
+ * on a ForkJoinPool: every worker thread owns its search state and all of them read the
+ * same snapshot of the arena, so the live arena can keep changing meanwhile.
+ * @author group 16
+ */
+public class GoalEvaluator {
+    private final Arena arena;
+    private final Arena snapshot;
+    private final ForkJoinPool pool;
+    private final ThreadLocal<JumpPointSearch> searches;
+    private final int batchSize;
+    private int lastSearchCount;
+
+    /**
+     * Searches the goals of a batch in the range [from, to) and stores each path in paths.
+     * @author group 16
+     */
+    private class EvaluateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Arena.Cell start;
+        private final List<Arena.Cell> goals;
+        private final int[] batch;
+        private final List<List<Arena.Cell>> paths;
+        private final int from;
+        private final int to;
+
+        EvaluateTask(Arena.Cell start, List<Arena.Cell> goals, int[] batch, List<List<Arena.Cell>> paths, int from, int to) {
+            this.start = start;
+            this.goals = goals;
+            this.batch = batch;
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                paths.set(from, searches.get().findPath(start, goals.get(batch[from])));
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new EvaluateTask(start, goals, batch, paths, from, mid),
+                    new EvaluateTask(start, goals, batch, paths, mid, to));
+        }
+    }
+
+    /**
+     * @param arena Live arena
+     * @param parallelism Number of worker threads, 1 to search on the calling thread
+     */
+    public GoalEvaluator(Arena arena, int parallelism) {
+        this.arena = arena;
+        this.snapshot = new Arena(arena);
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        this.batchSize = Math.max(1, parallelism);
+        this.searches = new ThreadLocal<JumpPointSearch>() {
+            @Override
+            protected JumpPointSearch initialValue() {
+                return new JumpPointSearch(snapshot);
+            }
+        };
+    }
+
+
+    /**
+     * Finds the shortest of the paths from the start cell to each of the goal cells.
+     * Ties are won by the goal that comes first in the list.
+     * @param startCell
+     * @param goalCells
+     * @return List of (live arena) cells for the path, null if no goal can be reached
+     */
+    public List<Arena.Cell> findShortest(Arena.Cell startCell, List<Arena.Cell> goalCells) {
+        if (goalCells.isEmpty())
+            return null;
+
+        snapshot.copyFrom(arena);
+
+        // candidates are searched on the snapshot
+        Arena.Cell start = snapshot.getCell(startCell.x, startCell.y);
+        List<Arena.Cell> goals = new ArrayList<Arena.Cell>(goalCells.size());
+        for (Arena.Cell goalCell : goalCells)
+            goals.add(snapshot.getCell(goalCell.x, goalCell.y));
+
+        ManhattanIndex.Query candidates = new ManhattanIndex(arena.WIDTH, arena.HEIGHT, goals).query(start.x, start.y);
+
+        List<Arena.Cell> path = null;
+        int pathGoal = -1;
+        int[] batch = new int[batchSize];
+        // one slot per goal of the batch, each set by one task
+        List<List<Arena.Cell>> paths = new ArrayList<List<Arena.Cell>>(Collections.<List<Arena.Cell>>nCopies(batchSize, null));
+        lastSearchCount = 0;
+
+        while (candidates.hasNext()) {
+            // every remaining goal is at least this far away, a shorter path can't be beaten
+            int bound = candidates.nextDistance();
+            if (path != null && bound > path.size())
+                break;
+
+            int n = 0;
+            while (n < batchSize && candidates.hasNext() && (path == null || candidates.nextDistance() <= path.size()))
+                batch[n++] = candidates.next();
+
+            if (pool != null && n > 1) {
+                pool.invoke(new EvaluateTask(start, goals, batch, paths, 0, n));
+            } else {
+                for (int i = 0; i < n; i++)
+                    paths.set(i, searches.get().findPath(start, goals.get(batch[i])));
+            }
+            lastSearchCount += n;
+
+            for (int i = 0; i < n; i++) {
+                List<Arena.Cell> p = paths.get(i);
+                if (p != null && (path == null || p.size() < path.size()
+                        || (p.size() == path.size() && batch[i] < pathGoal))) {
+                    path = p;
+                    pathGoal = batch[i];
+                }
+                paths.set(i, null);
+            }
+        }
+
+        if (path == null)
+            return null;
+
+        // hand back the live cells
+        for (int i = 0; i < path.size(); i++) {
+            Arena.Cell c = path.get(i);
+            path.set(i, arena.getCell(c.x, c.y));
+        }
+
+        return path;
+    }
+
+    /**
+     * Returns how many candidate goals were actually searched by the last findShortest call.
+     * @return search count
+     */
+    public int getLastSearchCount() {
+        return lastSearchCount;
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void shutdown() {
+        if (pool != null)
+            pool.shutdown();
+    }
+}
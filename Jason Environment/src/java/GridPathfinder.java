@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* pathfinder that works directly on the arena cell indices (x * HEIGHT + y).
+ * Unlike PathResolver it does not build a node graph: g-scores, parents and the
+ * open list heap live in primitive arrays that are allocated once per arena and
+ * reused by every search. Blocked cells are read straight from the arena, so
+ * the pathfinder never needs to be rebuilt when obstacles are added.
+ * @author group 16
+ */
+public class GridPathfinder {
+    /**
+     * Result of a multi-goal search.
+     * Holds the path to the nearest goal and the distance to every goal.
+     * @author group 16
+     */
+    public static class GoalSearch {
+        private final Arena.Cell goal;
+        private final List<Arena.Cell> path;
+        private final int[] distances;
+
+        GoalSearch(Arena.Cell goal, List<Arena.Cell> path, int[] distances) {
+            this.goal = goal;
+            this.path = path;
+            this.distances = distances;
+        }
+
+        /**
+         * Returns the nearest reachable goal (or null if none is reachable).
+         * @return
+         */
+        public Arena.Cell getGoal() {
+            return goal;
+        }
+
+        /**
+         * Returns the path to the nearest goal (or null if none is reachable).
+         * @return
+         */
+        public List<Arena.Cell> getPath() {
+            return path;
+        }
+
+        /**
+         * Returns the distance to the i-th goal of the searched list, -1 if unreachable.
+         * @param i
+         * @return
+         */
+        public int getDistance(int i) {
+            return distances[i];
+        }
+    }
+
+    private final Arena arena;
+    private final int size;
+
+    // Per cell search state (indexed by x * HEIGHT + y)
+    private final float[] costFromStart;
+    private final float[] totalCost;
+    private final int[] parent;
+    private final int[] insertOrder;
+    private final int[] heapIndex;
+    private final int[] touched; // search id that last touched the cell
+    private final int[] closed;  // search id that closed the cell
+    private final int[] goalMark; // search id that marked the cell as a goal
+
+    // Open list (binary heap of cell indices)
+    private final int[] heap;
+    private int heapSize;
+    private int queueTail;
+
+    private int searchId;
+    private int insertCounter;
+
+    public GridPathfinder(Arena arena) {
+        this.arena = arena;
+        this.size  = arena.WIDTH * arena.HEIGHT;
+
+        this.costFromStart = new float[size];
+        this.totalCost     = new float[size];
+        this.parent        = new int[size];
+        this.insertOrder   = new int[size];
+        this.heapIndex     = new int[size];
+        this.touched       = new int[size];
+        this.closed        = new int[size];
+        this.goalMark      = new int[size];
+        this.heap          = new int[size];
+    }
+
+    /**
+     * Returns the index of a cell within the search arrays.
+     * @param cell
+     * @return index
+     */
+    public int indexOf(Arena.Cell cell) {
+        return cell.x * arena.HEIGHT + cell.y;
+    }
+
+    private int estimatedCost(int index, int goal) {
+        return Math.abs(index / arena.HEIGHT - goal / arena.HEIGHT) + Math.abs(index % arena.HEIGHT - goal % arena.HEIGHT);
+    }
+
+    private boolean isWalkable(int x, int y) {
+        return !arena.isBlocked(x * arena.HEIGHT + y);
+    }
+
+    // Same tie breaking as HeapAStarSearch (latest queued first on equal cost)
+    private boolean before(int a, int b) {
+        if (totalCost[a] != totalCost[b])
+            return totalCost[a] < totalCost[b];
+        return insertOrder[a] > insertOrder[b];
+    }
+
+    private void place(int index, int i) {
+        heap[i] = index;
+        heapIndex[index] = i;
+    }
+
+    private void siftUp(int i) {
+        int index = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (!before(index, heap[p]))
+                break;
+            place(heap[p], i);
+            i = p;
+        }
+        place(index, i);
+    }
+
+    private void siftDown(int i) {
+        int index = heap[i];
+        int half = heapSize >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && before(heap[right], heap[child]))
+                child = right;
+            if (!before(heap[child], index))
+                break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(index, i);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            place(heap[heapSize], 0);
+            siftDown(0);
+        }
+        heapIndex[top] = -1;
+        return top;
+    }
+
+    private void touch(int index) {
+        if (touched[index] != searchId) {
+            touched[index] = searchId;
+            heapIndex[index] = -1;
+        }
+    }
+
+    /**
+     * Relaxes the edge from a cell to one of its neighbours.
+     * @param from
+     * @param to
+     * @param goal
+     */
+    private void relax(int from, int to, int goal) {
+        touch(to);
+
+        boolean isOpen   = heapIndex[to] >= 0;
+        boolean isClosed = closed[to] == searchId;
+        float cost       = costFromStart[from] + 1;
+
+        if ((!isOpen && !isClosed) || cost < costFromStart[to]) {
+            parent[to]        = from;
+            costFromStart[to] = cost;
+            totalCost[to]     = cost + estimatedCost(to, goal);
+            insertOrder[to]   = insertCounter++;
+            closed[to]        = 0;
+
+            if (isOpen) {
+                siftUp(heapIndex[to]);
+            } else {
+                heap[heapSize] = to;
+                siftUp(heapSize++);
+            }
+        }
+    }
+
+    /**
+     * Runs A* between two cell indices.
+     * @param start
+     * @param goal
+     * @return true if the goal was reached
+     */
+    private boolean search(int start, int goal) {
+        if (++searchId == 0) // wrapped around, forget every stamp
+            resetStamps();
+
+        heapSize = 0;
+        insertCounter = 0;
+
+        touch(start);
+        parent[start]        = -1;
+        costFromStart[start] = 0;
+        totalCost[start]     = estimatedCost(start, goal);
+        insertOrder[start]   = insertCounter++;
+        heap[heapSize]       = start;
+        siftUp(heapSize++);
+
+        final int H = arena.HEIGHT;
+        final int W = arena.WIDTH;
+
+        while (heapSize > 0) {
+            int index = pop();
+
+            if (index == goal)
+                return true;
+
+            int x = index / H;
+            int y = index % H;
+
+            // same neighbour order as PathResolver
+            if (x > 0 && isWalkable(x - 1, y))
+                relax(index, index - H, goal);
+            if (y > 0 && isWalkable(x, y - 1))
+                relax(index, index - 1, goal);
+            if (y < H - 1 && isWalkable(x, y + 1))
+                relax(index, index + 1, goal);
+            if (x < W - 1 && isWalkable(x + 1, y))
+                relax(index, index + H, goal);
+
+            closed[index] = searchId;
+        }
+
+        return false;
+    }
+
+    private void resetStamps() {
+        for (int i = 0; i < size; i++) {
+            touched[i] = 0;
+            closed[i] = 0;
+            goalMark[i] = 0;
+        }
+        searchId = 1;
+    }
+
+    /**
+     * Builds the list of cells from the start (excluded) to the given cell (included).
+     * @param index
+     * @return
+     */
+    private List<Arena.Cell> constructPath(int index) {
+        List<Arena.Cell> path = new ArrayList<Arena.Cell>((int) costFromStart[index]);
+
+        for (int i = index; parent[i] != -1; i = parent[i])
+            path.add(arena.getCell(i / arena.HEIGHT, i % arena.HEIGHT));
+
+        Collections.reverse(path);
+        return path;
+    }
+
+    /**
+     * Finds the shortest path between two cells of the arena.
+     * The returned list does not contain the start cell, which makes it
+     * directly usable as a sequence of moves.
+     * @param startCell
+     * @param goalCell
+     * @return List of cells for the path (or null if non existant)
+     */
+    public List<Arena.Cell> findPath(Arena.Cell startCell, Arena.Cell goalCell) {
+        int goal = indexOf(goalCell);
+
+        if (!search(indexOf(startCell), goal))
+            return null;
+
+        return constructPath(goal);
+    }
+
+    /**
+     * Queues a cell reached by the wavefront, unless it was already reached.
+     * @param from
+     * @param to
+     * @return 1 if a goal cell was reached, 0 otherwise
+     */
+    private int discover(int from, int to) {
+        if (touched[to] == searchId)
+            return 0;
+
+        touched[to] = searchId;
+        parent[to] = from;
+        costFromStart[to] = costFromStart[from] + 1;
+        heap[queueTail++] = to;
+
+        return goalMark[to] == searchId ? 1 : 0;
+    }
+
+    /**
+     * Breadth first wavefront from the start cell that stops once every goal has been reached.
+     * The heap array doubles as the queue as no cell is ever queued twice.
+     * @param start
+     * @param remaining number of distinct goal cells marked for this search
+     */
+    private void expandWavefront(int start, int remaining) {
+        final int H = arena.HEIGHT;
+        final int W = arena.WIDTH;
+
+        int head = 0;
+        queueTail = 0;
+
+        touch(start);
+        parent[start] = -1;
+        costFromStart[start] = 0;
+        heap[queueTail++] = start;
+
+        if (goalMark[start] == searchId)
+            remaining--;
+
+        while (head < queueTail && remaining > 0) {
+            int index = heap[head++];
+            int x = index / H;
+            int y = index % H;
+
+            if (x > 0 && isWalkable(x - 1, y))
+                remaining -= discover(index, index - H);
+            if (y > 0 && isWalkable(x, y - 1))
+                remaining -= discover(index, index - 1);
+            if (y < H - 1 && isWalkable(x, y + 1))
+                remaining -= discover(index, index + 1);
+            if (x < W - 1 && isWalkable(x + 1, y))
+                remaining -= discover(index, index + H);
+        }
+    }
+
+    /**
+     * Finds the nearest of several goal cells with a single breadth first search.
+     * Ties are broken in favour of the goal that comes first in the list.
+     * Unreachable goals are reported with a distance of -1 instead of failing the search.
+     * @param startCell
+     * @param goalCells
+     * @return GoalSearch holding the path to the nearest goal and the distance to every goal
+     */
+    public GoalSearch findNearest(Arena.Cell startCell, List<Arena.Cell> goalCells) {
+        if (++searchId == 0) // wrapped around, forget every stamp
+            resetStamps();
+
+        int distinct = 0;
+        for (Arena.Cell goalCell : goalCells) {
+            int goal = indexOf(goalCell);
+            if (goalMark[goal] != searchId) {
+                goalMark[goal] = searchId;
+                distinct++;
+            }
+        }
+
+        expandWavefront(indexOf(startCell), distinct);
+
+        int[] distances = new int[goalCells.size()];
+        int best = -1;
+
+        for (int i = 0; i < distances.length; i++) {
+            int goal = indexOf(goalCells.get(i));
+            distances[i] = touched[goal] == searchId ? (int) costFromStart[goal] : -1;
+
+            if (distances[i] != -1 && (best == -1 || distances[i] < distances[best]))
+                best = i;
+        }
+
+        if (best == -1)
+            return new GoalSearch(null, null, distances);
+
+        Arena.Cell goalCell = goalCells.get(best);
+        return new GoalSearch(goalCell, constructPath(indexOf(goalCell)), distances);
+    }
+
+    /**
+     * Debug method to print a path of cells.
+     * @param cells
+     */
+    public static void printPath(List<Arena.Cell> cells) {
+        int i = 1;
+        for (Arena.Cell pathCell : cells) {
+            System.out.println("Cell #" + i + ": C(" + pathCell.x + ", " + pathCell.y + ")");
+            i++;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Planner that minimises the time the robot spends driving instead of the number of cells.
+ * The search runs over (cell, heading) states: moving into a neighbour first rotates the
+ * robot to face it (just like ParamedicEnv.planMove does) and every rotation carries
+ * its own cost in seconds on top of the cost of driving one cell.
+ * Paths with fewer turns are therefore preferred whenever they are faster.
+ * @author group 16
+ */
+public class HeadingPlanner {
+    // Default costs measured on the brick (seconds)
+    public static final float DEFAULT_MOVE_SECONDS         = 2.0f; // move%25
+    public static final float DEFAULT_QUARTER_TURN_SECONDS = 3.0f; // rotate%90 + gyro correction pass
+    public static final float DEFAULT_HALF_TURN_SECONDS    = 4.5f; // rotate%180 + gyro correction pass
+
+    private static final int HEADINGS = 4;
+
+    private final Arena arena;
+    private final float[] headingAngles;
+
+    private float moveSeconds;
+    private float quarterTurnSeconds;
+    private float halfTurnSeconds;
+
+    // Per state search state (indexed by cell index * HEADINGS + heading)
+    private final float[] cost;
+    private final int[] parent;
+    private final int[] heapIndex;
+    private final int[] touched;
+    private final int[] closed;
+    private final int[] goalMark; // per cell
+
+    private final int[] heap;
+    private int heapSize;
+    private int searchId;
+    private float lastCost;
+
+    public HeadingPlanner(Arena arena) {
+        this(arena, DEFAULT_MOVE_SECONDS, DEFAULT_QUARTER_TURN_SECONDS, DEFAULT_HALF_TURN_SECONDS);
+    }
+
+    public HeadingPlanner(Arena arena, float moveSeconds, float quarterTurnSeconds, float halfTurnSeconds) {
+        this.arena = arena;
+        this.headingAngles = new float[] { arena.FORWARD, arena.RIGHT, arena.BACKWARD, arena.LEFT };
+
+        this.moveSeconds = moveSeconds;
+        this.quarterTurnSeconds = quarterTurnSeconds;
+        this.halfTurnSeconds = halfTurnSeconds;
+
+        int cells = arena.WIDTH * arena.HEIGHT;
+        int states = cells * HEADINGS;
+
+        this.cost      = new float[states];
+        this.parent    = new int[states];
+        this.heapIndex = new int[states];
+        this.touched   = new int[states];
+        this.closed    = new int[states];
+        this.goalMark  = new int[cells];
+        this.heap      = new int[states];
+    }
+
+    /**
+     * Sets the cost of driving one cell.
+     * @param seconds
+     */
+    public void setMoveCost(float seconds) {
+        this.moveSeconds = seconds;
+    }
+
+    /**
+     * Sets the cost of the 90 and 180 degree rotations.
+     * @param quarterTurnSeconds
+     * @param halfTurnSeconds
+     */
+    public void setTurnCost(float quarterTurnSeconds, float halfTurnSeconds) {
+        this.quarterTurnSeconds = quarterTurnSeconds;
+        this.halfTurnSeconds = halfTurnSeconds;
+    }
+
+    /**
+     * Returns the time (seconds) of the last path found.
+     * @return seconds
+     */
+    public float getLastCost() {
+        return lastCost;
+    }
+
+    private int headingIndex(float angle) {
+        for (int h = 0; h < HEADINGS; h++)
+            if (headingAngles[h] == angle)
+                return h;
+        return -1;
+    }
+
+    private float turnCost(float fromAngle, float toAngle) {
+        float rotation = Math.abs(Utility.shortestRotationAngle(toAngle - fromAngle));
+        if (rotation == 0)
+            return 0;
+        return rotation > 90 ? halfTurnSeconds : quarterTurnSeconds;
+    }
+
+    /************************/
+    //    Priority Queue    //
+    /************************/
+
+    private void place(int state, int i) {
+        heap[i] = state;
+        heapIndex[state] = i;
+    }
+
+    private void siftUp(int i) {
+        int state = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (cost[state] >= cost[heap[p]])
+                break;
+            place(heap[p], i);
+            i = p;
+        }
+        place(state, i);
+    }
+
+    private void siftDown(int i) {
+        int state = heap[i];
+        int half = heapSize >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && cost[heap[right]] < cost[heap[child]])
+                child = right;
+            if (cost[heap[child]] >= cost[state])
+                break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(state, i);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            place(heap[heapSize], 0);
+            siftDown(0);
+        }
+        heapIndex[top] = -1;
+        return top;
+    }
+
+    private void relax(int from, int to, float c) {
+        if (touched[to] != searchId) {
+            touched[to] = searchId;
+            heapIndex[to] = -1;
+        } else if (closed[to] == searchId || c >= cost[to]) {
+            return;
+        }
+
+        cost[to] = c;
+        parent[to] = from;
+
+        if (heapIndex[to] == -1) {
+            heap[heapSize] = to;
+            siftUp(heapSize++);
+        } else {
+            siftUp(heapIndex[to]);
+        }
+    }
+
+    /************************/
+    //        Search        //
+    /************************/
+
+    /**
+     * Finds the fastest path from a cell, with the robot facing the given heading,
+     * to the nearest (in time) of the goal cells.
+     * The returned list does not contain the start cell.
+     * @param startCell
+     * @param headingAngle Current heading (FORWARD/RIGHT/BACKWARD/LEFT)
+     * @param goalCells
+     * @return List of cells for the path (or null if no goal can be reached)
+     */
+    public List<Arena.Cell> findPath(Arena.Cell startCell, float headingAngle, List<Arena.Cell> goalCells) {
+        if (++searchId == 0) { // wrapped around, forget every stamp
+            Arrays.fill(touched, 0);
+            Arrays.fill(closed, 0);
+            Arrays.fill(goalMark, 0);
+            searchId = 1;
+        }
+
+        for (Arena.Cell goalCell : goalCells)
+            goalMark[goalCell.x * arena.HEIGHT + goalCell.y] = searchId;
+
+        int startHeading = headingIndex(((headingAngle % 360) + 360) % 360);
+        if (startHeading == -1)
+            startHeading = 0;
+
+        int start = (startCell.x * arena.HEIGHT + startCell.y) * HEADINGS + startHeading;
+
+        heapSize = 0;
+        touched[start] = searchId;
+        heapIndex[start] = -1;
+        cost[start] = 0;
+        parent[start] = -1;
+        heap[heapSize] = start;
+        siftUp(heapSize++);
+
+        while (heapSize > 0) {
+            int state = pop();
+            closed[state] = searchId;
+
+            int cellIndex = state / HEADINGS;
+            Arena.Cell cell = arena.getCell(cellIndex / arena.HEIGHT, cellIndex % arena.HEIGHT);
+            float heading = headingAngles[state % HEADINGS];
+
+            if (goalMark[cellIndex] == searchId) {
+                lastCost = cost[state];
+                return constructPath(state);
+            }
+
+            for (int h = 0; h < HEADINGS; h++) {
+                Arena.Cell next = arena.getNeighbourByHeading(cell, headingAngles[h], arena.FORWARD);
+                if (next == null || next.isBlocked())
+                    continue;
+
+                float mappedAngle = arena.resolveMappedAngle(cell, next);
+                float c = cost[state] + turnCost(heading, mappedAngle) + moveSeconds;
+                int nextState = (next.x * arena.HEIGHT + next.y) * HEADINGS + headingIndex(mappedAngle);
+
+                relax(state, nextState, c);
+            }
+        }
+
+        return null;
+    }
+
+    private List<Arena.Cell> constructPath(int state) {
+        List<Arena.Cell> path = new ArrayList<Arena.Cell>();
+
+        for (int s = state; parent[s] != -1; s = parent[s]) {
+            int cellIndex = s / HEADINGS;
+            path.add(arena.getCell(cellIndex / arena.HEIGHT, cellIndex % arena.HEIGHT));
+        }
+
+        Collections.reverse(path);
+        return path;
+    }
+}
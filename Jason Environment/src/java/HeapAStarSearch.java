@@ -0,0 +1,165 @@
+import java.util.List;
+
+/**
+ * A* search that keeps its open list in a binary heap with decrease-key
+ * and tracks open/closed state as flags on the nodes themselves.
+ * Produces the same paths as AStarSearch: ties on the total cost are
+ * broken in favour of the most recently queued node, just like the
+ * sorted insertion of AStarSearch.PriorityList.
+ * @author group 16
+ */
+class HeapAStarSearch extends AStarSearch {
+    private static int searchCounter = 0;
+
+    private AStarNode[] heap = new AStarNode[64];
+    private int heapSize;
+    private long insertCounter;
+    private int searchId;
+
+    /**
+     * Returns true if a should leave the heap before b.
+     * @param a
+     * @param b
+     * @return
+     */
+    private boolean before(AStarNode a, AStarNode b) {
+        float v = a.getCost() - b.getCost();
+        if (v != 0)
+            return v < 0;
+        return a.insertOrder > b.insertOrder;
+    }
+
+    private void place(AStarNode node, int i) {
+        heap[i] = node;
+        node.heapIndex = i;
+    }
+
+    private void siftUp(int i) {
+        AStarNode node = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >> 1;
+            if (!before(node, heap[parent]))
+                break;
+            place(heap[parent], i);
+            i = parent;
+        }
+        place(node, i);
+    }
+
+    private void siftDown(int i) {
+        AStarNode node = heap[i];
+        int half = heapSize >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && before(heap[right], heap[child]))
+                child = right;
+            if (!before(heap[child], node))
+                break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(node, i);
+    }
+
+    private void push(AStarNode node) {
+        if (heapSize == heap.length) {
+            AStarNode[] grown = new AStarNode[heap.length * 2];
+            System.arraycopy(heap, 0, grown, 0, heapSize);
+            heap = grown;
+        }
+        node.insertOrder = insertCounter++;
+        heap[heapSize] = node;
+        siftUp(heapSize++);
+    }
+
+    private AStarNode pop() {
+        AStarNode top = heap[0];
+        AStarNode last = heap[--heapSize];
+        heap[heapSize] = null;
+        if (heapSize > 0) {
+            place(last, 0);
+            siftDown(0);
+        }
+        top.heapIndex = -1;
+        return top;
+    }
+
+    /**
+     * Re-positions an open node whose cost has just been lowered.
+     * The node is treated as freshly queued for tie breaking purposes.
+     * @param node
+     */
+    private void decreaseKey(AStarNode node) {
+        node.insertOrder = insertCounter++;
+        siftUp(node.heapIndex);
+    }
+
+    /**
+     * Marks a node as touched by the running search, clearing any
+     * state left over from previous searches.
+     * @param node
+     */
+    private void touch(AStarNode node) {
+        if (node.searchId != searchId) {
+            node.searchId = searchId;
+            node.heapIndex = -1;
+            node.closed = false;
+        }
+    }
+
+    @Override
+    public List<?> findPath( AStarNode startNode, AStarNode goalNode ) {
+        searchId = ++searchCounter;
+        heapSize = 0;
+        insertCounter = 0;
+
+        touch(startNode);
+        startNode.costFromStart       = 0;
+        startNode.estimatedCostToGoal = startNode.getEstimatedCost(goalNode);
+        startNode.pathParent          = null;
+
+        push(startNode);
+
+        while (heapSize > 0) {
+            AStarNode node = pop();
+
+            // construct the path from start to goal
+            if (node == goalNode) {
+                while (heapSize > 0)
+                    heap[--heapSize] = null;
+                return constructPath(goalNode);
+            }
+
+            List<?> neighbours = node.getNeighbours();
+
+            for (int i=0; i<neighbours.size(); i++) {
+                AStarNode neighbourNode = (AStarNode)neighbours.get(i);
+                touch(neighbourNode);
+
+                boolean isOpen   = neighbourNode.heapIndex >= 0;
+                boolean isClosed = neighbourNode.closed;
+
+                float costFromStart = node.costFromStart + node.getCost(neighbourNode);
+
+                if ((!isOpen && !isClosed) || costFromStart < neighbourNode.costFromStart) {
+                    neighbourNode.pathParent          = node;
+                    neighbourNode.costFromStart       = costFromStart;
+                    neighbourNode.estimatedCostToGoal = neighbourNode.getEstimatedCost(goalNode);
+
+                    neighbourNode.closed = false;
+
+                    if (isOpen)
+                        decreaseKey(neighbourNode);
+                    else
+                        push(neighbourNode);
+                }
+            }
+
+            node.closed = true;
+        }
+
+        // no path found
+        return null;
+    }
+}
@@ -0,0 +1,354 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Incremental planner based on D* Lite.
+ * The search runs backwards from a set of goal cells towards the robot, and its state
+ * (g/rhs values and the priority queue) is kept between calls. When a cell becomes
+ * blocked/unblocked (tracked through the arena version), when the goal set changes or
+ * when the robot moves, only the affected part of the search is repaired instead of
+ * planning from scratch.
+ * @author group 16
+ */
+public class IncrementalPlanner {
+    private static final float INFINITY = Float.POSITIVE_INFINITY;
+
+    private final Arena arena;
+    private final int size;
+
+    // Per cell search state (indexed by x * HEIGHT + y)
+    private final float[] g;
+    private final float[] rhs;
+    private final boolean[] goal;
+    private final boolean[] blocked; // the planner's view of the arena
+
+    // Priority queue (binary heap of cell indices ordered by [key1; key2])
+    private final float[] key1;
+    private final float[] key2;
+    private final int[] heap;
+    private final int[] heapIndex;
+    private int heapSize;
+
+    private final List<Arena.Cell> goals = new ArrayList<Arena.Cell>();
+    private float km;
+    private int version;
+    private int lastStart = -1;
+    private int expansions;
+
+    // Scratch buffers for neighbour indices
+    private final int[] updateBuffer = new int[4];
+    private final int[] expandBuffer = new int[4];
+
+    public IncrementalPlanner(Arena arena) {
+        this.arena = arena;
+        this.size  = arena.WIDTH * arena.HEIGHT;
+
+        this.g         = new float[size];
+        this.rhs       = new float[size];
+        this.goal      = new boolean[size];
+        this.blocked   = new boolean[size];
+        this.key1      = new float[size];
+        this.key2      = new float[size];
+        this.heap      = new int[size];
+        this.heapIndex = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            g[i] = INFINITY;
+            rhs[i] = INFINITY;
+            heapIndex[i] = -1;
+            blocked[i] = arena.isBlocked(i);
+        }
+        this.version = arena.getVersion();
+    }
+
+    private int indexOf(Arena.Cell cell) {
+        return cell.x * arena.HEIGHT + cell.y;
+    }
+
+    private int heuristic(int a, int b) {
+        return Math.abs(a / arena.HEIGHT - b / arena.HEIGHT) + Math.abs(a % arena.HEIGHT - b % arena.HEIGHT);
+    }
+
+    /**
+     * Writes the neighbour indices of a cell into the given array (same order as PathResolver).
+     * @param index
+     * @param out
+     * @return number of neighbours
+     */
+    private int neighbours(int index, int[] out) {
+        final int H = arena.HEIGHT;
+        int x = index / H;
+        int y = index % H;
+        int n = 0;
+
+        if (x > 0)
+            out[n++] = index - H;
+        if (y > 0)
+            out[n++] = index - 1;
+        if (y < H - 1)
+            out[n++] = index + 1;
+        if (x < arena.WIDTH - 1)
+            out[n++] = index + H;
+
+        return n;
+    }
+
+    /************************/
+    //    Priority Queue    //
+    /************************/
+
+    private boolean less(float a1, float a2, float b1, float b2) {
+        return a1 < b1 || (a1 == b1 && a2 < b2);
+    }
+
+    private boolean before(int a, int b) {
+        return less(key1[a], key2[a], key1[b], key2[b]);
+    }
+
+    private void place(int index, int i) {
+        heap[i] = index;
+        heapIndex[index] = i;
+    }
+
+    private void siftUp(int i) {
+        int index = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (!before(index, heap[p]))
+                break;
+            place(heap[p], i);
+            i = p;
+        }
+        place(index, i);
+    }
+
+    private void siftDown(int i) {
+        int index = heap[i];
+        int half = heapSize >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && before(heap[right], heap[child]))
+                child = right;
+            if (!before(heap[child], index))
+                break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(index, i);
+    }
+
+    private void queue(int index, int start) {
+        float m = Math.min(g[index], rhs[index]);
+        key1[index] = m + heuristic(start, index) + km;
+        key2[index] = m;
+
+        if (heapIndex[index] == -1) {
+            heap[heapSize] = index;
+            siftUp(heapSize++);
+        } else {
+            siftUp(heapIndex[index]);
+            siftDown(heapIndex[index]);
+        }
+    }
+
+    private void dequeue(int index) {
+        int i = heapIndex[index];
+        heapIndex[index] = -1;
+        heapSize--;
+
+        if (i == heapSize)
+            return;
+
+        int moved = heap[heapSize];
+        place(moved, i);
+        siftUp(i);
+        if (heapIndex[moved] == i)
+            siftDown(i);
+    }
+
+    /**
+     * Recomputes every queued key for a new start and restores the heap order.
+     * Only needed the first time the planner learns where the robot is.
+     * @param start
+     */
+    private void rekey(int start) {
+        for (int i = 0; i < heapSize; i++) {
+            int index = heap[i];
+            float m = Math.min(g[index], rhs[index]);
+            key1[index] = m + heuristic(start, index) + km;
+            key2[index] = m;
+        }
+        for (int i = (heapSize >> 1) - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+    /************************/
+    //       D* Lite        //
+    /************************/
+
+    /**
+     * Recomputes the one step lookahead value of a cell and fixes its queue membership.
+     * Moving into a blocked cell is impossible, moving out of one is allowed.
+     * @param index
+     * @param start
+     */
+    private void updateVertex(int index, int start) {
+        if (!goal[index]) {
+            float best = INFINITY;
+            int n = neighbours(index, updateBuffer);
+            for (int i = 0; i < n; i++) {
+                int next = updateBuffer[i];
+                if (!blocked[next] && g[next] + 1 < best)
+                    best = g[next] + 1;
+            }
+            rhs[index] = best;
+        } else {
+            rhs[index] = 0;
+        }
+
+        if (g[index] != rhs[index])
+            queue(index, start);
+        else if (heapIndex[index] != -1)
+            dequeue(index);
+    }
+
+    private void updateNeighbours(int index, int start) {
+        int n = neighbours(index, expandBuffer);
+        for (int i = 0; i < n; i++)
+            updateVertex(expandBuffer[i], start);
+    }
+
+    private void computeShortestPath(int start) {
+        while (heapSize > 0) {
+            int top = heap[0];
+            float m = Math.min(g[start], rhs[start]);
+
+            if (!less(key1[top], key2[top], m + km, m) && rhs[start] == g[start])
+                break;
+
+            expansions++;
+
+            float oldKey1 = key1[top];
+            float oldKey2 = key2[top];
+            float t = Math.min(g[top], rhs[top]);
+
+            if (less(oldKey1, oldKey2, t + heuristic(start, top) + km, t)) {
+                queue(top, start);
+            } else if (g[top] > rhs[top]) {
+                g[top] = rhs[top];
+                dequeue(top);
+                updateNeighbours(top, start);
+            } else {
+                g[top] = INFINITY;
+                updateVertex(top, start);
+                updateNeighbours(top, start);
+            }
+        }
+    }
+
+    /**
+     * Moves the search origin to a new robot position.
+     * The queue keys are not touched, the key modifier accounts for the move.
+     * @param start
+     */
+    private void moveStart(int start) {
+        if (lastStart == -1)
+            rekey(start);
+        else if (lastStart != start)
+            km += heuristic(lastStart, start);
+        lastStart = start;
+    }
+
+    /************************/
+    //      Public API      //
+    /************************/
+
+    /**
+     * Replaces the goal set. Only cells that stopped or started being a goal are repaired.
+     * @param goalCells
+     */
+    public void setGoals(List<Arena.Cell> goalCells) {
+        sync();
+        int start = lastStart == -1 ? 0 : lastStart;
+
+        for (Arena.Cell c : goals)
+            goal[indexOf(c)] = false;
+        for (Arena.Cell c : goalCells)
+            goal[indexOf(c)] = true;
+
+        for (Arena.Cell c : goals)
+            if (!goal[indexOf(c)])
+                updateVertex(indexOf(c), start);
+        for (Arena.Cell c : goalCells)
+            updateVertex(indexOf(c), start);
+
+        goals.clear();
+        goals.addAll(goalCells);
+    }
+
+    /**
+     * Repairs the search for every cell whose blocked state changed since the last sync.
+     * Only the changed cells' neighbours (whose moves into the cell changed cost) are updated.
+     */
+    private void sync() {
+        if (version == arena.getVersion())
+            return;
+
+        for (Arena.Cell cell : arena.getChangedCells(version)) {
+            int index = indexOf(cell);
+            if (blocked[index] == cell.isBlocked())
+                continue;
+
+            blocked[index] = cell.isBlocked();
+            updateNeighbours(index, lastStart == -1 ? 0 : lastStart);
+        }
+
+        version = arena.getVersion();
+    }
+
+    /**
+     * Finds the shortest path from the given cell to the nearest goal.
+     * The returned list does not contain the start cell.
+     * @param startCell
+     * @return List of cells for the path (or null if no goal can be reached)
+     */
+    public List<Arena.Cell> findPath(Arena.Cell startCell) {
+        int start = indexOf(startCell);
+        sync();
+        moveStart(start);
+        computeShortestPath(start);
+
+        if (g[start] == INFINITY && !goal[start])
+            return null;
+
+        List<Arena.Cell> path = new ArrayList<Arena.Cell>();
+        int current = start;
+
+        while (!goal[current]) {
+            int n = neighbours(current, expandBuffer);
+            int best = -1;
+            for (int i = 0; i < n; i++) {
+                int next = expandBuffer[i];
+                if (!blocked[next] && (best == -1 || g[next] < g[best]))
+                    best = next;
+            }
+
+            if (best == -1 || g[best] == INFINITY)
+                return null;
+
+            current = best;
+            path.add(arena.getCell(current / arena.HEIGHT, current % arena.HEIGHT));
+        }
+
+        return path;
+    }
+
+    /**
+     * Returns how many cells have been expanded since the planner was created.
+     * @return expansions
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+}
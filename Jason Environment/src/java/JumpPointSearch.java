@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Jump Point Search for the 4-connected, uniform cost arena grid.
+ * Instead of expanding every cell, the search jumps in straight lines and only stops
+ * at jump points: the goal, cells where a side opens up behind an obstacle, and
+ * (when moving vertically) cells from which a horizontal jump finds one of those.
+ * Paths are produced as a compact list of jump points which can be expanded back
+ * into the full list of cells for ParamedicEnv.drivePath.
+ * @author group 16
+ */
+public class JumpPointSearch {
+    private final Arena arena;
+    private final int size;
+
+    // Per cell search state (indexed by x * HEIGHT + y)
+    private final int[] costFromStart;
+    private final int[] totalCost;
+    private final int[] parent;
+    private final int[] heapIndex;
+    private final int[] touched;
+    private final int[] closed;
+
+    private final int[] heap;
+    private int heapSize;
+    private int searchId;
+    private int expansions;
+
+    // Goal of the running search
+    private int goalX;
+    private int goalY;
+
+    public JumpPointSearch(Arena arena) {
+        this.arena = arena;
+        this.size  = arena.WIDTH * arena.HEIGHT;
+
+        this.costFromStart = new int[size];
+        this.totalCost     = new int[size];
+        this.parent        = new int[size];
+        this.heapIndex     = new int[size];
+        this.touched       = new int[size];
+        this.closed        = new int[size];
+        this.heap          = new int[size];
+    }
+
+    private boolean isWalkable(int x, int y) {
+        return x >= 0 && y >= 0 && x < arena.WIDTH && y < arena.HEIGHT && !arena.isBlocked(x * arena.HEIGHT + y);
+    }
+
+    /************************/
+    //        Jumping       //
+    /************************/
+
+    /**
+     * Jumps horizontally from (x, y).
+     * @return index of the jump point found, -1 if the jump runs into a wall/obstacle
+     */
+    private int jumpHorizontal(int x, int y, int dx) {
+        while (true) {
+            x += dx;
+            if (!isWalkable(x, y))
+                return -1;
+            if (x == goalX && y == goalY)
+                return x * arena.HEIGHT + y;
+
+            // forced neighbours: a side opens up right after an obstacle
+            if ((isWalkable(x, y + 1) && !isWalkable(x - dx, y + 1))
+                    || (isWalkable(x, y - 1) && !isWalkable(x - dx, y - 1)))
+                return x * arena.HEIGHT + y;
+        }
+    }
+
+    /**
+     * Jumps vertically from (x, y), scanning horizontally at every step.
+     * @return index of the jump point found, -1 if the jump runs into a wall/obstacle
+     */
+    private int jumpVertical(int x, int y, int dy) {
+        while (true) {
+            y += dy;
+            if (!isWalkable(x, y))
+                return -1;
+            if (x == goalX && y == goalY)
+                return x * arena.HEIGHT + y;
+
+            if ((isWalkable(x + 1, y) && !isWalkable(x + 1, y - dy))
+                    || (isWalkable(x - 1, y) && !isWalkable(x - 1, y - dy)))
+                return x * arena.HEIGHT + y;
+
+            if (jumpHorizontal(x, y, 1) != -1 || jumpHorizontal(x, y, -1) != -1)
+                return x * arena.HEIGHT + y;
+        }
+    }
+
+    /************************/
+    //    Priority Queue    //
+    /************************/
+
+    private void place(int index, int i) {
+        heap[i] = index;
+        heapIndex[index] = i;
+    }
+
+    private void siftUp(int i) {
+        int index = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (totalCost[index] >= totalCost[heap[p]])
+                break;
+            place(heap[p], i);
+            i = p;
+        }
+        place(index, i);
+    }
+
+    private void siftDown(int i) {
+        int index = heap[i];
+        int half = heapSize >> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < heapSize && totalCost[heap[right]] < totalCost[heap[child]])
+                child = right;
+            if (totalCost[heap[child]] >= totalCost[index])
+                break;
+            place(heap[child], i);
+            i = child;
+        }
+        place(index, i);
+    }
+
+    private int pop() {
+        int top = heap[0];
+        heapSize--;
+        if (heapSize > 0) {
+            place(heap[heapSize], 0);
+            siftDown(0);
+        }
+        heapIndex[top] = -1;
+        return top;
+    }
+
+    /**
+     * Queues a jump point reached from another one in a straight line.
+     * @param from
+     * @param to
+     */
+    private void relax(int from, int to) {
+        final int H = arena.HEIGHT;
+        int cost = costFromStart[from] + Math.abs(from / H - to / H) + Math.abs(from % H - to % H);
+
+        if (touched[to] != searchId) {
+            touched[to] = searchId;
+            heapIndex[to] = -1;
+        } else if (closed[to] == searchId || cost >= costFromStart[to]) {
+            return;
+        }
+
+        costFromStart[to] = cost;
+        totalCost[to] = cost + Math.abs(to / H - goalX) + Math.abs(to % H - goalY);
+        parent[to] = from;
+
+        if (heapIndex[to] == -1) {
+            heap[heapSize] = to;
+            siftUp(heapSize++);
+        } else {
+            siftUp(heapIndex[to]);
+        }
+    }
+
+    /************************/
+    //        Search        //
+    /************************/
+
+    /**
+     * Finds the shortest path between two cells as a list of jump points.
+     * Consecutive jump points (and the start and first jump point) are always on
+     * the same row or column. The start cell is not included.
+     * @param startCell
+     * @param goalCell
+     * @return List of jump points (or null if non existant)
+     */
+    public List<Arena.Cell> findJumpPoints(Arena.Cell startCell, Arena.Cell goalCell) {
+        final int H = arena.HEIGHT;
+
+        if (++searchId == 0) { // wrapped around, forget every stamp
+            for (int i = 0; i < size; i++) {
+                touched[i] = 0;
+                closed[i] = 0;
+            }
+            searchId = 1;
+        }
+
+        goalX = goalCell.x;
+        goalY = goalCell.y;
+
+        int start = startCell.x * H + startCell.y;
+        int goal = goalX * H + goalY;
+
+        heapSize = 0;
+        touched[start] = searchId;
+        heapIndex[start] = -1;
+        costFromStart[start] = 0;
+        totalCost[start] = 0;
+        parent[start] = -1;
+        heap[heapSize] = start;
+        siftUp(heapSize++);
+
+        while (heapSize > 0) {
+            int index = pop();
+            closed[index] = searchId;
+            expansions++;
+
+            if (index == goal)
+                return constructJumpPoints(goal);
+
+            int x = index / H;
+            int y = index % H;
+
+            // never jump back towards the parent, every other direction is searched
+            int px = parent[index] == -1 ? x : parent[index] / H;
+            int py = parent[index] == -1 ? y : parent[index] % H;
+            int dx = Integer.signum(x - px);
+            int dy = Integer.signum(y - py);
+
+            int next;
+            if (dx != 1 && (next = jumpHorizontal(x, y, -1)) != -1)
+                relax(index, next);
+            if (dy != 1 && (next = jumpVertical(x, y, -1)) != -1)
+                relax(index, next);
+            if (dy != -1 && (next = jumpVertical(x, y, 1)) != -1)
+                relax(index, next);
+            if (dx != -1 && (next = jumpHorizontal(x, y, 1)) != -1)
+                relax(index, next);
+        }
+
+        return null;
+    }
+
+    private List<Arena.Cell> constructJumpPoints(int index) {
+        List<Arena.Cell> jumpPoints = new ArrayList<Arena.Cell>();
+
+        for (int i = index; parent[i] != -1; i = parent[i])
+            jumpPoints.add(arena.getCell(i / arena.HEIGHT, i % arena.HEIGHT));
+
+        Collections.reverse(jumpPoints);
+        return jumpPoints;
+    }
+
+    /**
+     * Expands a list of jump points back into every cell along the way.
+     * @param startCell
+     * @param jumpPoints
+     * @return List of cells for the path (start cell excluded)
+     */
+    public List<Arena.Cell> expand(Arena.Cell startCell, List<Arena.Cell> jumpPoints) {
+        List<Arena.Cell> path = new ArrayList<Arena.Cell>();
+        Arena.Cell current = startCell;
+
+        for (Arena.Cell jumpPoint : jumpPoints) {
+            int dx = Integer.signum(jumpPoint.x - current.x);
+            int dy = Integer.signum(jumpPoint.y - current.y);
+
+            while (current.x != jumpPoint.x || current.y != jumpPoint.y) {
+                current = arena.getCell(current.x + dx, current.y + dy);
+                path.add(current);
+            }
+        }
+
+        return path;
+    }
+
+    /**
+     * Finds the shortest path between two cells of the arena.
+     * @param startCell
+     * @param goalCell
+     * @return List of cells for the path (or null if non existant)
+     */
+    public List<Arena.Cell> findPath(Arena.Cell startCell, Arena.Cell goalCell) {
+        List<Arena.Cell> jumpPoints = findJumpPoints(startCell, goalCell);
+        return jumpPoints == null ? null : expand(startCell, jumpPoints);
+    }
+
+    /**
+     * Returns how many jump points have been expanded since the search was created.
+     * @return expansions
+     */
+    public int getExpansions() {
+        return expansions;
+    }
+}
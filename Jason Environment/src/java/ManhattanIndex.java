@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spatial index over a list of cells for nearest-by-Manhattan-distance queries.
+ * The arena is divided into square buckets; a query visits the buckets in rings of growing
+ * bucket distance around the query point and only opens a ring once its lower bound could
+ * still beat the closest cell found so far. Cells come out in order of (distance, position
+ * in the list), so the Manhattan distance of the next cell is a lower bound on the path
+ * length to every cell not returned yet.
+ * @author group 16
+ */
+public class ManhattanIndex {
+    public static final int BUCKET_SIZE = 8;
+
+    private final List<Arena.Cell> cells;
+    private final int bucketsX;
+    private final int bucketsY;
+
+    // Cells of bucket b are items[bucketStart[b] .. bucketStart[b + 1]) (positions in the list)
+    private final int[] bucketStart;
+    private final int[] items;
+
+    /**
+     * Iterator over the indexed cells in order of distance from a point.
+     * @author group 16
+     */
+    public class Query {
+        private final int x;
+        private final int y;
+        private final int bx;
+        private final int by;
+        private int ring;
+
+        // Binary heap of (distance << 32 | position in the list)
+        private long[] heap = new long[16];
+        private int heapSize;
+
+        private Query(int x, int y) {
+            this.x = x;
+            this.y = y;
+            this.bx = x / BUCKET_SIZE;
+            this.by = y / BUCKET_SIZE;
+        }
+
+        /**
+         * Smallest Manhattan distance from the query point to any cell of a bucket in the given ring.
+         * Each bucket step away on an axis is at least one cell (the first) and then BUCKET_SIZE more.
+         */
+        private int ringLowerBound(int r) {
+            return r < 2 ? r : (r - 2) * BUCKET_SIZE + 2;
+        }
+
+        private void advance() {
+            final int lastRing = bucketsX + bucketsY;
+            while (ring <= lastRing && (heapSize == 0 || ringLowerBound(ring) <= (int) (heap[0] >>> 32))) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    int dy = ring - Math.abs(dx);
+                    pushBucket(bx + dx, by + dy);
+                    if (dy != 0)
+                        pushBucket(bx + dx, by - dy);
+                }
+                ring++;
+            }
+        }
+
+        private void pushBucket(int cx, int cy) {
+            if (cx < 0 || cy < 0 || cx >= bucketsX || cy >= bucketsY)
+                return;
+
+            int b = cx * bucketsY + cy;
+            for (int i = bucketStart[b]; i < bucketStart[b + 1]; i++) {
+                Arena.Cell cell = cells.get(items[i]);
+                long distance = Math.abs(cell.x - x) + Math.abs(cell.y - y);
+                push((distance << 32) | items[i]);
+            }
+        }
+
+        private void push(long key) {
+            if (heapSize == heap.length)
+                heap = Arrays.copyOf(heap, heapSize * 2);
+
+            int i = heapSize++;
+            while (i > 0) {
+                int p = (i - 1) >> 1;
+                if (heap[p] <= key)
+                    break;
+                heap[i] = heap[p];
+                i = p;
+            }
+            heap[i] = key;
+        }
+
+        private long pop() {
+            long top = heap[0];
+            long last = heap[--heapSize];
+            int i = 0;
+            int half = heapSize >> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < heapSize && heap[child + 1] < heap[child])
+                    child++;
+                if (heap[child] >= last)
+                    break;
+                heap[i] = heap[child];
+                i = child;
+            }
+            if (heapSize > 0)
+                heap[i] = last;
+            return top;
+        }
+
+        public boolean hasNext() {
+            advance();
+            return heapSize > 0;
+        }
+
+        /**
+         * Returns the Manhattan distance of the next cell, a lower bound for every remaining cell.
+         * @return distance (-1 if no cell is left)
+         */
+        public int nextDistance() {
+            return hasNext() ? (int) (heap[0] >>> 32) : -1;
+        }
+
+        /**
+         * Returns the position (in the indexed list) of the next closest cell.
+         * @return position in the list
+         */
+        public int next() {
+            advance();
+            return (int) pop();
+        }
+    }
+
+    /**
+     * Indexes the given cells of an arena of the given size.
+     * @param width
+     * @param height
+     * @param cells
+     */
+    public ManhattanIndex(int width, int height, List<Arena.Cell> cells) {
+        this.cells = cells;
+        this.bucketsX = (width + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        this.bucketsY = (height + BUCKET_SIZE - 1) / BUCKET_SIZE;
+        this.bucketStart = new int[bucketsX * bucketsY + 1];
+        this.items = new int[cells.size()];
+
+        // counting sort of the cells into their buckets, keeping list order inside a bucket
+        for (Arena.Cell cell : cells)
+            bucketStart[bucketOf(cell) + 1]++;
+        for (int b = 0; b < bucketsX * bucketsY; b++)
+            bucketStart[b + 1] += bucketStart[b];
+
+        int[] fill = bucketStart.clone();
+        for (int i = 0; i < cells.size(); i++)
+            items[fill[bucketOf(cells.get(i))]++] = i;
+    }
+
+    private int bucketOf(Arena.Cell cell) {
+        return (cell.x / BUCKET_SIZE) * bucketsY + cell.y / BUCKET_SIZE;
+    }
+
+    /**
+     * Starts a query around the given point.
+     * @param x
+     * @param y
+     * @return Query
+     */
+    public Query query(int x, int y) {
+        return new Query(x, y);
+    }
+
+    /**
+     * Returns the k cells closest to the given point (ties won by the cell first in the list).
+     * @param x
+     * @param y
+     * @param k
+     * @return up to k cells, closest first
+     */
+    public List<Arena.Cell> nearest(int x, int y, int k) {
+        List<Arena.Cell> result = new ArrayList<Arena.Cell>(Math.min(k, cells.size()));
+        Query query = query(x, y);
+        while (result.size() < k && query.hasNext())
+            result.add(cells.get(query.next()));
+        return result;
+    }
+}
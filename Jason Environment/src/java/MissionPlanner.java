@@ -0,0 +1,245 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Plans the order in which the possible victim cells are visited.
+ * An all-pairs distance table between the start, every victim cell and the hospital
+ * is built with one breadth first wavefront per cell. The visiting order is then solved
+ * as an open travelling salesman tour from the start to the hospital: exactly with the
+ * Held-Karp dynamic program for small victim counts, and with a nearest neighbour tour
+ * improved by 2-opt and Or-opt moves otherwise.
+ * @author group 16
+ */
+public class MissionPlanner {
+    // Largest number of victims solved exactly (Held-Karp is O(2^n * n^2))
+    public static final int EXACT_LIMIT = 12;
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE / 4;
+
+    private final GridPathfinder pathfinder;
+    private int[][] dist;
+    private int tourLength;
+
+    public MissionPlanner(Arena arena) {
+        this.pathfinder = new GridPathfinder(arena);
+    }
+
+    /**
+     * Builds the distance table. Index 0 is the start, 1..n the victims and n + 1 the hospital.
+     * @param cells
+     */
+    private void buildDistanceTable(List<Arena.Cell> cells) {
+        int n = cells.size();
+        dist = new int[n][n];
+
+        for (int i = 0; i < n; i++) {
+            GridPathfinder.GoalSearch search = pathfinder.findNearest(cells.get(i), cells);
+            for (int j = 0; j < n; j++) {
+                int d = search.getDistance(j);
+                dist[i][j] = d == -1 ? UNREACHABLE : d;
+            }
+        }
+    }
+
+    private int tourCost(int[] order) {
+        int last = dist.length - 1;
+        if (order.length == 0)
+            return dist[0][last];
+
+        int cost = dist[0][order[0]];
+        for (int i = 1; i < order.length; i++)
+            cost += dist[order[i - 1]][order[i]];
+        return cost + dist[order[order.length - 1]][last];
+    }
+
+    /**
+     * Exact open tour from the start through every victim to the hospital.
+     * @param n number of victims
+     * @return visiting order (table indices)
+     */
+    private int[] solveExact(int n) {
+        final int FULL = (1 << n) - 1;
+        final int last = n + 1;
+
+        int[][] cost = new int[1 << n][n];
+        int[][] prev = new int[1 << n][n];
+
+        for (int mask = 0; mask <= FULL; mask++)
+            for (int j = 0; j < n; j++)
+                cost[mask][j] = UNREACHABLE;
+
+        for (int j = 0; j < n; j++)
+            cost[1 << j][j] = dist[0][j + 1];
+
+        for (int mask = 1; mask <= FULL; mask++) {
+            for (int j = 0; j < n; j++) {
+                if ((mask & (1 << j)) == 0 || cost[mask][j] >= UNREACHABLE)
+                    continue;
+
+                for (int k = 0; k < n; k++) {
+                    if ((mask & (1 << k)) != 0)
+                        continue;
+
+                    int next = mask | (1 << k);
+                    int c = cost[mask][j] + dist[j + 1][k + 1];
+                    if (c < cost[next][k]) {
+                        cost[next][k] = c;
+                        prev[next][k] = j;
+                    }
+                }
+            }
+        }
+
+        int end = 0;
+        for (int j = 1; j < n; j++)
+            if (cost[FULL][j] + dist[j + 1][last] < cost[FULL][end] + dist[end + 1][last])
+                end = j;
+
+        int[] order = new int[n];
+        int mask = FULL;
+        for (int i = n - 1; i >= 0; i--) {
+            order[i] = end + 1;
+            int p = prev[mask][end];
+            mask &= ~(1 << end);
+            end = p;
+        }
+
+        return order;
+    }
+
+    /**
+     * Nearest neighbour tour improved with 2-opt and Or-opt moves until no move helps.
+     * @param n number of victims
+     * @return visiting order (table indices)
+     */
+    private int[] solveHeuristic(int n) {
+        int[] order = new int[n];
+        boolean[] used = new boolean[n + 1];
+        int current = 0;
+
+        for (int i = 0; i < n; i++) {
+            int best = -1;
+            for (int j = 1; j <= n; j++)
+                if (!used[j] && (best == -1 || dist[current][j] < dist[current][best]))
+                    best = j;
+            used[best] = true;
+            order[i] = best;
+            current = best;
+        }
+
+        int cost = tourCost(order);
+        boolean improved = true;
+
+        while (improved) {
+            improved = false;
+
+            // 2-opt: reverse order[i..k]
+            for (int i = 0; i < n - 1; i++) {
+                for (int k = i + 1; k < n; k++) {
+                    reverse(order, i, k);
+                    int c = tourCost(order);
+                    if (c < cost) {
+                        cost = c;
+                        improved = true;
+                    } else {
+                        reverse(order, i, k);
+                    }
+                }
+            }
+
+            // Or-opt: move a run of 1 to 3 victims to another position
+            for (int len = 1; len <= 3; len++) {
+                for (int i = 0; i + len <= n; i++) {
+                    for (int j = 0; j <= n - len; j++) {
+                        if (j == i)
+                            continue;
+
+                        int[] moved = moveSegment(order, i, len, j);
+                        int c = tourCost(moved);
+                        if (c < cost) {
+                            order = moved;
+                            cost = c;
+                            improved = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        return order;
+    }
+
+    private static void reverse(int[] a, int i, int k) {
+        while (i < k) {
+            int t = a[i];
+            a[i++] = a[k];
+            a[k--] = t;
+        }
+    }
+
+    /**
+     * Returns a copy of the order with the run starting at i (of length len) moved so it starts at j.
+     */
+    private static int[] moveSegment(int[] order, int i, int len, int j) {
+        int n = order.length;
+        int[] rest = new int[n - len];
+        int r = 0;
+        for (int k = 0; k < n; k++)
+            if (k < i || k >= i + len)
+                rest[r++] = order[k];
+
+        int[] moved = new int[n];
+        System.arraycopy(rest, 0, moved, 0, j);
+        System.arraycopy(order, i, moved, j, len);
+        System.arraycopy(rest, j, moved, j + len, rest.length - j);
+        return moved;
+    }
+
+    /**
+     * Plans the order in which to visit the victim cells, starting at the start cell
+     * and finishing at the hospital. Victim cells that can't be reached are left out.
+     * @param startCell
+     * @param hospitalCell
+     * @param victimCells
+     * @return Ordered list of the reachable victim cells
+     */
+    public List<Arena.Cell> planTour(Arena.Cell startCell, Arena.Cell hospitalCell, List<Arena.Cell> victimCells) {
+        List<Arena.Cell> cells = new ArrayList<Arena.Cell>();
+        cells.add(startCell);
+        cells.addAll(victimCells);
+        cells.add(hospitalCell);
+
+        buildDistanceTable(cells);
+
+        // drop victims the robot can't get to
+        List<Arena.Cell> reachable = new ArrayList<Arena.Cell>();
+        for (int i = 1; i <= victimCells.size(); i++)
+            if (dist[0][i] < UNREACHABLE)
+                reachable.add(cells.get(i));
+
+        if (reachable.size() != victimCells.size()) {
+            cells.clear();
+            cells.add(startCell);
+            cells.addAll(reachable);
+            cells.add(hospitalCell);
+            buildDistanceTable(cells);
+        }
+
+        int n = reachable.size();
+        int[] order = n <= EXACT_LIMIT ? solveExact(n) : solveHeuristic(n);
+        tourLength = tourCost(order);
+
+        List<Arena.Cell> tour = new ArrayList<Arena.Cell>(n);
+        for (int i : order)
+            tour.add(cells.get(i));
+        return tour;
+    }
+
+    /**
+     * Returns the length (in cells) of the last planned tour, hospital leg included.
+     * @return tour length
+     */
+    public int getTourLength() {
+        return tourLength;
+    }
+}
@@ -1,12 +1,19 @@
 import java.util.List;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import jason.asSyntax.*;
 import jason.environment.*;
 import jason.environment.grid.GridWorldModel;
 import jason.environment.grid.GridWorldView;
 import java.util.logging.*;
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class of the Jason Environment.
@@ -21,6 +28,14 @@ public class ParamedicEnv extends Environment {
     public static final int HOSPITAL    = 8; // hospital code in grid model
     public static final int VICTIM      = 16; // victim code in grid model
     
+    // Ev3 Brick Constants
+    public static final String BRICK_IP     = "192.168.70.173";
+    public static final String SIMULATOR_IP = "127.0.0.1";
+    public static final int BRICK_PORT      = 1234;
+    public static final int TELEMETRY_PORT  = 1235;
+    public static final int TELEMETRY_PERIOD = 100; // ms between two telemetry samples
+    public static final float DRIFT_LIMIT   = 10;  // gyro drift (deg) that calls for a correction
+    
     // Agent Constants & ID
     private static final String PARAMEDIC = "paramedic";
     private static final String DOCTOR 	  = "doctor";
@@ -36,15 +51,42 @@ public class ParamedicEnv extends Environment {
     public static final String VICTIM_STATUS = "victimStatus";
     public static final String NO_VICTIM 	 = "noVictim";
     public static final String CR_NEEDED 	 = "correctionNeeded";
+    
+    // Environment Options (arguments of the environment in the .mas2j file)
+    public static final String OPT_TOUR     = "tour";     // plan the whole mission instead of going to the nearest victim
+    public static final String OPT_HEADING  = "heading";  // plan for the least driving time (turns included)
+    public static final String OPT_JPS      = "jps";      // plan with jump point search
+    public static final String OPT_PARALLEL = "parallel"; // with jps, search the candidate goals concurrently
+    public static final String OPT_JOURNAL  = "journal";  // journal the run so a restart resumes it
+    public static final String OPT_TELEMETRY = "telemetry"; // subscribe to the telemetry stream of the brick
+    public static final String OPT_SIMULATOR = "simulator"; // drive the Ev3Simulator running on this machine
+    public static final String JOURNAL_DIR  = "journal";
+
+    // Moves sent to the brick ahead of the one it is driving, so it never waits for the next one
+    public static final int PIPELINE_DEPTH = 1;
+    // Times a route to the hospital is replanned from where it stopped before giving up
+    public static final int ROUTE_ATTEMPTS = 3;
 
     // Other
     private Client client;
+    private String brickIp = BRICK_IP;
+    private TelemetryClient telemetry;
+    private boolean telemetryEnabled = false;
     private Logger logger = getLogger();
     private ArrayList<Arena.Cell> rememberedVictims = new ArrayList<Arena.Cell>();
     
     // Instance Objects
     private Arena arena;
     private GUIArena gui;
+    private IncrementalPlanner victimPlanner;
+    private IncrementalPlanner hospitalPlanner;
+    private MissionPlanner missionPlanner;
+    private HeadingPlanner headingPlanner;
+    private GoalEvaluator goalEvaluator;
+    private RunJournal journal;
+    private boolean tourPlanning    = false;
+    private boolean headingPlanning = false;
+    private boolean jpsPlanning     = false;
     
     // Data obtained from the paramedic
     private int POSSIBLE_VICTIM_COUNT;
@@ -58,7 +100,26 @@ public class ParamedicEnv extends Environment {
     private int logic_iterations	   = 0;
     private int critical_victims_found = 0;
     private int victims_recovered 	   = 0;
-    private boolean correction_needed  = false;
+    private volatile boolean correction_needed = false;
+    private boolean resumed            = false;
+    private boolean awaitingPosition   = false; // resumed, the agent doesn't know the robot's cell yet
+    private RunJournal.State recovered = null;
+
+    /**
+     * A move sent to the brick that the robot hasn't completed yet.
+     * @author group 16
+     */
+    private static class PendingMove {
+        final Arena.Cell cell;
+        final float heading;
+        final CompletableFuture<Object[]> reply;
+
+        PendingMove(Arena.Cell cell, float heading, CompletableFuture<Object[]> reply) {
+            this.cell = cell;
+            this.heading = heading;
+            this.reply = reply;
+        }
+    }
 
     /************************/
     // 	  Helper Methods	//
@@ -89,10 +150,75 @@ public class ParamedicEnv extends Environment {
     }
 
     private void updatePosition(int x, int y) {
-        perceptParamedic("updatePosition(" + x + ", " + y + ")");
+        perceptPosition(x, y);
         sleep(1000);
     }
 
+    private void perceptPosition(int x, int y) {
+        perceptParamedic("updatePosition(" + x + ", " + y + ")");
+    }
+
+    /**
+     * Returns the cell the agent says the robot is on.
+     * A resumed run keeps the cell recovered from the journal until the agent has caught up with it
+     * (it starts out believing the robot is on its initial position).
+     * @param x
+     * @param y
+     */
+    private Arena.Cell agentCell(int x, int y) {
+        if (awaitingPosition) {
+            if (x != currentCell.x || y != currentCell.y) {
+                log("Agent is at Vector(" + x + ", " + y + "), keeping the resumed Vector(" + currentCell.x + ", "
+                        + currentCell.y + ")");
+                return currentCell;
+            }
+            awaitingPosition = false;
+        }
+        return arena.getCell(x, y);
+    }
+
+    private boolean hasOption(String[] args, String option) {
+        if (args == null)
+            return false;
+        for (String arg : args)
+            if (option.equals(arg.replace("\"", "").trim()))
+                return true;
+        return false;
+    }
+
+    private void journalCounters() {
+        if (journal != null)
+            journal.recordCounters(victims_recovered, critical_victims_found);
+    }
+
+    /**
+     * Opens the run journal and resumes the run it holds, if any.
+     */
+    private void openJournal() {
+        try {
+            journal = new RunJournal(new File(JOURNAL_DIR), arena);
+            long t = System.currentTimeMillis();
+            RunJournal.State state = journal.recover();
+            if (state == null)
+                return;
+
+            currentCell = arena.getCell(state.x, state.y);
+            headingAngle = state.heading;
+            victims_recovered = state.victimsRecovered;
+            critical_victims_found = state.criticalVictimsFound;
+            for (int[] cell : state.rememberedVictims)
+                rememberedVictims.add(arena.getCell(cell[0], cell[1]));
+            recovered = state;
+            resumed = true;
+
+            log("Resumed run from the journal in " + (System.currentTimeMillis() - t) + "ms at Vector("
+                    + currentCell.x + ", " + currentCell.y + "), " + victims_recovered + " victims recovered");
+        } catch (IOException e) {
+            log("Run journal unavailable: " + e.getMessage());
+            journal = null;
+        }
+    }
+
     private void continueVictimSearch(int x, int y) {
         logic_iterations++;
         perceptParamedic("continueVictimSearch(" + logic_iterations + "," + x + "," + y + ")");
@@ -108,6 +234,63 @@ public class ParamedicEnv extends Environment {
     public void init(String[] args) {
         super.init(args);
         arena = new Arena(GSize, GSize);
+        if (hasOption(args, OPT_JOURNAL))
+            openJournal();
+        victimPlanner = new IncrementalPlanner(arena);
+        hospitalPlanner = new IncrementalPlanner(arena);
+        hospitalPlanner.setGoals(Collections.singletonList(arena.getCell(0, 0)));
+        missionPlanner = new MissionPlanner(arena);
+        headingPlanner = new HeadingPlanner(arena);
+        tourPlanning = hasOption(args, OPT_TOUR);
+        headingPlanning = hasOption(args, OPT_HEADING);
+        jpsPlanning = hasOption(args, OPT_JPS);
+        goalEvaluator = new GoalEvaluator(arena,
+                hasOption(args, OPT_PARALLEL) ? Runtime.getRuntime().availableProcessors() : 1);
+        if (hasOption(args, OPT_SIMULATOR))
+            brickIp = SIMULATOR_IP;
+        telemetry = new TelemetryClient(brickIp, TELEMETRY_PORT, TELEMETRY_PERIOD, logger);
+        telemetryEnabled = hasOption(args, OPT_TELEMETRY);
+        if (telemetryEnabled)
+            watchDrift();
+    }
+
+    /**
+     * Subscribes to the robot's telemetry (delivered once the brick is connected with the telemetry option).
+     * @param listener
+     */
+    public void addTelemetryListener(TelemetryListener listener) {
+        telemetry.addListener(listener);
+    }
+
+    public void removeTelemetryListener(TelemetryListener listener) {
+        telemetry.removeListener(listener);
+    }
+
+    /**
+     * Returns the last telemetry sample of the robot, null if none was received.
+     */
+    public Protocol.Telemetry getTelemetry() {
+        return telemetry.getLatest();
+    }
+
+    /**
+     * Asks for a correction as soon as the gyro drifts away from the heading of the standing robot,
+     * instead of waiting for the agent to notice.
+     */
+    private void watchDrift() {
+        addTelemetryListener(new TelemetryListener() {
+            @Override
+            public void telemetryReceived(Protocol.Telemetry sample) {
+                if (sample.moving || correction_needed)
+                    return;
+
+                float drift = ((sample.angle - sample.heading) % 360 + 540) % 360 - 180;
+                if (Math.abs(drift) > DRIFT_LIMIT) {
+                    correction_needed = true;
+                    log("[DRIFT] Gyro is " + drift + " deg off the heading, queuing a correction.");
+                }
+            }
+        });
     }
     
     /**
@@ -126,13 +309,25 @@ public class ParamedicEnv extends Environment {
      */
     private void connectToBrick() {
         try {
-            client = new Client("192.168.70.173", 1234, logger);
+            client = new Client(brickIp, BRICK_PORT, logger);
             client.connect();
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        if (telemetryEnabled) {
+            try {
+                telemetry.connect();
+            } catch (IOException e) {
+                log("Telemetry unavailable: " + e.getMessage());
+            }
+        }
         perceptAgents("connected_to_brick");
         log("Connected successfully to EV3 Brick!");
+
+        // the agent still believes the robot is on its initial position
+        if (awaitingPosition)
+            perceptPosition(currentCell.x, currentCell.y);
     }
     
     /**
@@ -141,8 +336,13 @@ public class ParamedicEnv extends Environment {
      * @param y
      */
     public void startRun(int x, int y) {
-        Arena.Cell startCell = arena.getCell(x, y);
+        // a resumed run carries on from where the robot was
+        Arena.Cell startCell = resumed ? currentCell : arena.getCell(x, y);
         currentCell = startCell;
+        awaitingPosition = resumed;
+
+        if (journal != null)
+            journal.recordRun(POSSIBLE_VICTIM_COUNT, CRITICAL_VICTIM_COUNT, NON_CRITICAL_VICTIM_COUNT, OBSTACLE_COUNT);
 
         arena.print();
         initGUI(startCell);
@@ -156,23 +356,164 @@ public class ParamedicEnv extends Environment {
      * Will launch the completed GUI.
      */
     public void completedRun() {
-        client.sendInstruction("lapcompleted%");
+        client.request(Protocol.Command.of(Protocol.LAPCOMPLETED));
         GUILapCompleted guiLC = new GUILapCompleted("Elapsed time: " + (System.currentTimeMillis() - START_TIME) + "\n"
                 + "Logic Iterations: " + logic_iterations + "\n" + "Victims Recovered: " + victims_recovered
                 + " out of " + (CRITICAL_VICTIM_COUNT + NON_CRITICAL_VICTIM_COUNT) + "\n"
                 + "Critical Victims Recovered: " + critical_victims_found + " out of " + CRITICAL_VICTIM_COUNT + "\n"
                 + "Victims Remembered: " + rememberedVictims.size() + "\n");
         gui.setStatus("Lap Completed!");
+
+        if (journal != null) {
+            try {
+                journal.clear();
+            } catch (IOException e) {
+                log("Could not clear the run journal: " + e.getMessage());
+            }
+        }
     }
     
     /**
-     * Method concerning all the logic in moving form the current cell to the next cell.
-     * This encapsulates the mechanics of sending the instructions necessary to the Ev3 Brick.
-     * This method also will wait until the brick is completed and will update the belief base of the paramedic agent.
+     * Drives the robot along a path.
+     * The whole path is uploaded as one route when the brick speaks the binary protocol.
+     * Otherwise the instructions of the next cells are sent while the robot is still driving the
+     * current one, so it goes on without waiting a round trip (and the belief update) between cells.
+     * @param path
+     * @return Whether the robot reached the end of the path (otherwise it is on the last cell reached)
+     */
+    private boolean drivePath(List<Arena.Cell> path) {
+        if (client.isBinary())
+            return driveRoute(path);
+
+        ArrayDeque<PendingMove> moves = new ArrayDeque<PendingMove>();
+        Arena.Cell fromCell = currentCell;
+        float reachedHeading = headingAngle;
+
+        for (Arena.Cell pathCell : path) {
+            log(fromCell.x + "," + fromCell.y + " | " + pathCell.x + "," + pathCell.y);
+            moves.add(queueMove(fromCell, pathCell));
+            fromCell = pathCell;
+
+            if (moves.size() > PIPELINE_DEPTH) {
+                PendingMove move = moves.poll();
+                if (!arrive(move))
+                    return stopPath(moves, reachedHeading);
+                reachedHeading = move.heading;
+            }
+        }
+
+        while (!moves.isEmpty()) {
+            PendingMove move = moves.poll();
+            if (!arrive(move))
+                return stopPath(moves, reachedHeading);
+            reachedHeading = move.heading;
+        }
+
+        return true;
+    }
+
+    /**
+     * Gives up on the rest of a path after a move failed, see drivePath().
+     * No more moves are sent, but the ones already sent can't be taken back: the brick still drives
+     * them, so each is waited for and reached if it completes. The robot ends up on the last cell
+     * a completed move reached.
+     * @param moves Moves sent after the one that failed
+     * @param reachedHeading Heading of the robot on the last cell it reached
+     * @return false
+     */
+    private boolean stopPath(ArrayDeque<PendingMove> moves, float reachedHeading) {
+        int inFlight = moves.size();
+        while (!moves.isEmpty()) {
+            PendingMove move = moves.poll();
+            if (arrive(move))
+                reachedHeading = move.heading;
+        }
+
+        headingAngle = reachedHeading;
+        log("Path stopped at Vector(" + currentCell.x + ", " + currentCell.y + ") after a failed move, "
+                + inFlight + " moves were still in flight");
+        return false;
+    }
+
+    /**
+     * Drives the robot along a path uploaded as one route program.
+     * The brick drives it on its own; the cells are reached (gui, journal, percepts) as its progress
+     * comes back, without holding up the robot.
+     * @param path
+     * @return Whether the robot reached the end of the path (otherwise it is on the last cell reached)
+     */
+    private boolean driveRoute(List<Arena.Cell> path) {
+        List<Protocol.Command> program = new ArrayList<Protocol.Command>();
+        float startHeading = headingAngle;
+        float[] headings = new float[path.size()];
+        Arena.Cell fromCell = currentCell;
+
+        for (int i = 0; i < path.size(); i++) {
+            Arena.Cell pathCell = path.get(i);
+            log(fromCell.x + "," + fromCell.y + " | " + pathCell.x + "," + pathCell.y);
+            program.addAll(planMove(fromCell, pathCell));
+            headings[i] = headingAngle;
+            fromCell = pathCell;
+        }
+
+        final LinkedBlockingQueue<Integer> steps = new LinkedBlockingQueue<Integer>();
+        CompletableFuture<Object[]> route = client.requestRoute(program, new RouteListener() {
+            @Override
+            public void stepCompleted(int step) {
+                steps.add(step);
+            }
+        });
+
+        int reached = 0;
+        while (reached < path.size()) {
+            Integer step;
+            try {
+                step = steps.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (step != null) {
+                Arena.Cell cell = path.get(step);
+                reachCell(cell, headings[step]);
+                perceptPosition(cell.x, cell.y);
+                reached++;
+            } else if (route.isDone() && steps.isEmpty()) {
+                break; // every step is reported before the route completes
+            }
+        }
+
+        if (reached == path.size())
+            return true;
+
+        // planning advanced the heading to the end of the path, the robot faces the way it reached its cell
+        headingAngle = reached > 0 ? headings[reached - 1] : startHeading;
+        log("Route stopped after " + reached + " of " + path.size() + " cells!");
+        return false;
+    }
+
+    /**
+     * Sends the instructions to move from one cell to the next cell, see planMove().
+     * Does not wait for the brick, see arrive().
+     * @param fromCell Cell the robot will be on when it gets these instructions
      * @param nextCell
+     * @return The move in flight
      */
-    private void moveToNextCell(Arena.Cell nextCell) {
-        float mappedAngle = arena.resolveMappedAngle(currentCell, nextCell);
+    private PendingMove queueMove(Arena.Cell fromCell, Arena.Cell nextCell) {
+        List<Protocol.Command> cmds = planMove(fromCell, nextCell);
+        return new PendingMove(nextCell, headingAngle, client.requestAsync(cmds.toArray(new Protocol.Command[cmds.size()])));
+    }
+
+    /**
+     * Method concerning all the logic in moving form one cell to the next cell.
+     * This encapsulates the mechanics of the instructions necessary to the Ev3 Brick.
+     * @param fromCell Cell the robot will be on when it gets these instructions
+     * @param nextCell
+     * @return Instructions, ending with the MOVE
+     */
+    private List<Protocol.Command> planMove(Arena.Cell fromCell, Arena.Cell nextCell) {
+        float mappedAngle = arena.resolveMappedAngle(fromCell, nextCell);
         float rotationAngle = mappedAngle - headingAngle;
 
         if (rotationAngle != 0)
@@ -180,17 +521,17 @@ public class ParamedicEnv extends Environment {
 
         log("RA: " + rotationAngle + " MA:" + mappedAngle + " HA:" + headingAngle);
 
-        ArrayList<String> cmds = new ArrayList<String>();
+        ArrayList<Protocol.Command> cmds = new ArrayList<Protocol.Command>();
         rotationAngle = Utility.shortestRotationAngle(rotationAngle);
 
         if (rotationAngle != 0)
-            cmds.add("rotate%" + rotationAngle);
+            cmds.add(Protocol.Command.of(Protocol.ROTATE, rotationAngle));
 
         if (correction_needed) {
             float correction_angle = -1;
-            Arena.Cell rightCell = arena.getNeighbourByHeading(currentCell, headingAngle, arena.RIGHT);
-            Arena.Cell leftCell = arena.getNeighbourByHeading(currentCell, headingAngle, arena.LEFT);
-            Arena.Cell forwardCell = arena.getNeighbourByHeading(currentCell, headingAngle, arena.FORWARD);
+            Arena.Cell rightCell = arena.getNeighbourByHeading(fromCell, headingAngle, arena.RIGHT);
+            Arena.Cell leftCell = arena.getNeighbourByHeading(fromCell, headingAngle, arena.LEFT);
+            Arena.Cell forwardCell = arena.getNeighbourByHeading(fromCell, headingAngle, arena.FORWARD);
 
             boolean cantRight = rightCell == null || rightCell.isBlocked();
             boolean cantLeft = leftCell == null || leftCell.isBlocked();
@@ -209,37 +550,96 @@ public class ParamedicEnv extends Environment {
 
             if (correction_angle != -1) {
                 log("[CORRECTION] Correction can be performed. Queuing instruction.");
-                cmds.add("centering%" + correction_angle);
+                cmds.add(Protocol.Command.of(Protocol.CENTERING, correction_angle));
                 correction_needed = false;
             }
         }
 
-        cmds.add("move%25");
+        cmds.add(Protocol.Command.of(Protocol.MOVE, 25));
 
-        for (String cmd : cmds)
+        for (Protocol.Command cmd : cmds)
             System.out.println(">> " + cmd);
 
-        String returnResult = client.sendInstructions(cmds);
+        return cmds;
+    }
 
-        currentCell = nextCell;
+    /**
+     * Waits until the brick has completed a move and updates the belief base of the paramedic agent.
+     * @param move
+     * @return Whether the move completed (otherwise the cell is not reached)
+     */
+    private boolean arrive(PendingMove move) {
+        try {
+            Object[] values = move.reply.get();
+            if (Arrays.asList(values).contains("ERROR")) {
+                log("Move to Vector(" + move.cell.x + ", " + move.cell.y + ") failed on the brick: " + Arrays.toString(values));
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            log("Move to Vector(" + move.cell.x + ", " + move.cell.y + ") failed: " + e.getCause());
+            return false;
+        }
+
+        reachCell(move.cell, move.heading);
+        updatePosition(currentCell.x, currentCell.y);
+        return true;
+    }
+
+    /**
+     * Records that the robot reached a cell (arena, journal and gui).
+     * @param cell
+     * @param heading Heading of the robot on the cell
+     */
+    private void reachCell(Arena.Cell cell, float heading) {
+        currentCell = cell;
         currentCell.setVisited(true);
-        gui.setCurrentPosition(currentCell, headingAngle);
-        updatePosition(nextCell.x, nextCell.y);
+        arena.publishChanges();
+        if (journal != null)
+            journal.recordMove(currentCell.x, currentCell.y, heading);
+        gui.setCurrentPosition(currentCell, heading);
+    }
+    
+    /**
+     * Plans a path from the current cell to the nearest of the goal cells.
+     * Uses the heading aware planner or jump point search when enabled, the given incremental planner otherwise.
+     * @param planner
+     * @param goalCells
+     * @return List of cells for the path (or null if no goal can be reached)
+     */
+    private List<Arena.Cell> planPath(IncrementalPlanner planner, List<Arena.Cell> goalCells) {
+        if (headingPlanning) {
+            List<Arena.Cell> path = headingPlanner.findPath(currentCell, headingAngle, goalCells);
+            log("Heading aware path takes an estimated " + headingPlanner.getLastCost() + "s");
+            return path;
+        }
+
+        if (jpsPlanning) {
+            long t = System.currentTimeMillis();
+            List<Arena.Cell> path = goalEvaluator.findShortest(currentCell, goalCells);
+            log("Evaluated " + goalCells.size() + " candidate goals in " + (System.currentTimeMillis() - t) + "ms");
+            return path;
+        }
+
+        planner.setGoals(goalCells);
+        return planner.findPath(currentCell);
     }
     
     /**
      * Method used to calculate the next goal.
      * Here the pathfinding will take place.
-     * We use A* algorithm to find a path to all the interested goals.
-     * We then pick the shortest path of the calcualted paths and transverse through it.
+     * An incremental D* Lite search towards all the interested goals finds the nearest one,
+     * reusing the work of previous calls. We then transverse through the path to it.
+     * With the tour option the goal is instead the first victim cell of the planned mission tour.
      * @param x
      * @param y
      */
     public void resolveNextGoal(int x, int y) {
         gui.setStatus("Calculating...");
 
-        currentCell = arena.getCell(x, y);
-        PathResolver vpr = new PathResolver(arena);
+        currentCell = agentCell(x, y);
 
         if (victims_recovered == CRITICAL_VICTIM_COUNT + NON_CRITICAL_VICTIM_COUNT) {
             completedRun();
@@ -255,27 +655,34 @@ public class ParamedicEnv extends Environment {
 
         List<Arena.Cell> victimCells = arena.calculatePossibleVictimCells();
 
-        List pickedPath = null;
-        int bs = Integer.MAX_VALUE;
-        for (Arena.Cell goalCell : victimCells) {
-            List l = vpr.calculatePath(currentCell, goalCell);
+        if (tourPlanning) {
+            List<Arena.Cell> tour = missionPlanner.planTour(currentCell, arena.getCell(0, 0), victimCells);
+            log("Mission tour over " + tour.size() + " victim cells is " + missionPlanner.getTourLength() + " cells long");
+            if (!tour.isEmpty())
+                victimCells = Collections.singletonList(tour.get(0));
+        }
+
+        List<Arena.Cell> pickedPath = planPath(victimPlanner, victimCells);
 
-            if (l.size() < bs) {
-                pickedPath = l;
-                bs = l.size();
-            }
+        if (pickedPath == null) {
+            gui.setStatus("No reachable victim cells!");
+            log("None of the " + victimCells.size() + " possible victim cells can be reached!");
+            return;
         }
 
+        Arena.Cell goalCell = pickedPath.isEmpty() ? currentCell : pickedPath.get(pickedPath.size() - 1);
+        log("Next victim cell Vector(" + goalCell.x + ", " + goalCell.y + ") is " + pickedPath.size() + " cells away");
+
         gui.setStatus("Pathfinding...");
-        gui.setGoalCell(((PathResolver.Node) pickedPath.get(bs - 1)).getCell());
-        PathResolver.printNodes(pickedPath);
-
-        // Decide if we want to highlight the path or network cell by cell.
-        // gui simulation
-        for (Object o : pickedPath) {
-            Arena.Cell pathCell = ((PathResolver.Node) o).getCell();
-            log(currentCell.x + "," + currentCell.y + " | " + pathCell.x + "," + pathCell.y);
-            moveToNextCell(pathCell);
+        gui.setGoalCell(goalCell);
+        GridPathfinder.printPath(pickedPath);
+
+        if (!drivePath(pickedPath)) {
+            // replan from the cell reached, the agent goes on from there
+            gui.setStatus("Route stopped at Vector(" + currentCell.x + ", " + currentCell.y + ")!");
+            gui.setGoalCell(null);
+            continueVictimSearch(currentCell.x, currentCell.y);
+            return;
         }
 
         long t = System.currentTimeMillis();
@@ -292,12 +699,8 @@ public class ParamedicEnv extends Environment {
      * @return
      */
     private String[] requestColorData() {
-        ArrayList<String> cmds = new ArrayList<String>();
-        cmds.add("rcolor%");
-        cmds.add("lcolor%");
-
-        String returnValue = client.sendInstructions(cmds).replaceAll("\\s", "");
-        String[] colorArray = returnValue.substring(1, returnValue.length() - 1).split(","); // 0 right, 1 left
+        Object[] values = client.request(Protocol.Command.of(Protocol.RCOLOR), Protocol.Command.of(Protocol.LCOLOR));
+        String[] colorArray = { String.valueOf(values[0]).trim(), String.valueOf(values[1]).trim() }; // 0 right, 1 left
 
         return colorArray;
     }
@@ -343,24 +746,39 @@ public class ParamedicEnv extends Environment {
      * @param y
      */
     public void moveToHospital(int x, int y) {
-        currentCell = arena.getCell(x, y);
+        currentCell = agentCell(x, y);
         Arena.Cell hospitalCell = arena.getCell(0, 0);
 
         gui.setStatus("Calculating...");
 
-        PathResolver vpr = new PathResolver(arena);
-        List path = vpr.calculatePath(currentCell, hospitalCell);
+        List<Arena.Cell> path = planPath(hospitalPlanner, Collections.singletonList(hospitalCell));
+
+        if (path == null) {
+            gui.setStatus("Hospital can't be reached!");
+            log("No path from Vector(" + currentCell.x + ", " + currentCell.y + ") to the hospital!");
+            return;
+        }
 
         gui.setStatus("Moving to the hospital...");
         gui.setGoalCell(hospitalCell);
 
-        client.sendInstruction("playSiren%");
-
-        // gui simulation
-        for (Object o : path) {
-            Arena.Cell pathCell = ((PathResolver.Node) o).getCell();
-            log(currentCell.x + "," + currentCell.y + " | " + pathCell.x + "," + pathCell.y);
-            moveToNextCell(pathCell);
+        // the siren plays while the first move is queued behind it
+        client.requestAsync(Protocol.Command.of(Protocol.PLAYSIREN));
+
+        // a stopped route is replanned from the cell reached, the victim still has to get to the hospital
+        int routeAttempts = 1;
+        while (!drivePath(path)) {
+            log("Route to the hospital stopped at Vector(" + currentCell.x + ", " + currentCell.y + ") [ATTEMPT:"
+                    + routeAttempts + "]");
+            path = routeAttempts < ROUTE_ATTEMPTS
+                    ? planPath(hospitalPlanner, Collections.singletonList(hospitalCell)) : null;
+            if (path == null) {
+                gui.setStatus("Hospital can't be reached!");
+                gui.setGoalCell(null);
+                updatePosition(currentCell.x, currentCell.y);
+                return;
+            }
+            routeAttempts++;
         }
 
         // check if correct cell (YELLOW RETURN VALUE!)
@@ -387,6 +805,7 @@ public class ParamedicEnv extends Environment {
         }
 
         victims_recovered++;
+        journalCounters();
         gui.setStatus("Reached goal! goal(" + currentCell.x + ", " + currentCell.y + ")");
         gui.setVictimsRecovered(Integer.toString(victims_recovered));
 
@@ -408,6 +827,7 @@ public class ParamedicEnv extends Environment {
         if (critical) {
             gui.setStatus("Critical victim resolved!");
             critical_victims_found++;
+            journalCounters();
             sleep(1000);
             moveToHospital(x, y);
         } else {
@@ -417,6 +837,8 @@ public class ParamedicEnv extends Environment {
                 moveToHospital(x, y);
             } else {
                 rememberedVictims.add(possibleVictimCell);
+                if (journal != null)
+                    journal.recordRememberedVictim(x, y);
                 gui.setVictimsRemembered(Integer.toString(rememberedVictims.size()));
                 continueVictimSearch(x, y);
             }
@@ -434,8 +856,13 @@ public class ParamedicEnv extends Environment {
             if (ADD_VICTIM.equals(functor)) {
                 int x = (int) ((NumberTerm) action.getTerm(0)).solve();
                 int y = (int) ((NumberTerm) action.getTerm(1)).solve();
-                arena.getCell(x, y).setHasVictim(true);
-                log("Adding victim to arena DS: Vector(" + x + "," + y + ")");
+                // a resumed run gets every location again, the journal knows which were resolved
+                if (recovered != null && recovered.hasVictimState(arena, x, y)) {
+                    log("Keeping the journaled victim state of Vector(" + x + "," + y + ")");
+                } else {
+                    arena.getCell(x, y).setHasVictim(true);
+                    log("Adding victim to arena DS: Vector(" + x + "," + y + ")");
+                }
             } else if (ADD_OBSTACLE.equals(functor)) {
                 int x = (int) ((NumberTerm) action.getTerm(0)).solve();
                 int y = (int) ((NumberTerm) action.getTerm(1)).solve();
@@ -498,6 +925,8 @@ public class ParamedicEnv extends Environment {
             e.printStackTrace();
         }
 
+        // one batch of arena changes per action
+        arena.publishChanges();
         informAgsEnvironmentChanged();
         return true;
     }
@@ -505,6 +934,15 @@ public class ParamedicEnv extends Environment {
     /** Called before the end of MAS execution */
     @Override
     public void stop() {
+        goalEvaluator.shutdown();
+        telemetry.close();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log("Could not close the run journal: " + e.getMessage());
+            }
+        }
         super.stop();
     }
 }
@@ -0,0 +1,12 @@
+/**
+ * Follows a route run on the Ev3 Brick.
+ * Steps are reported on the reply reader thread, once each and in order, so listeners must be quick.
+ * @author group 16
+ */
+public interface RouteListener {
+    /**
+     * Called when the robot completed a step (MOVE) of the route.
+     * @param step Index of the step, from 0
+     */
+    void stepCompleted(int step);
+}
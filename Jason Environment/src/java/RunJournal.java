@@ -0,0 +1,407 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Append only journal of a run, so a restarted ParamedicEnv can resume where the last one died.
+ * Records (arena changes, robot moves, counters) are written into a memory mapped file: an append
+ * is a handful of stores into memory and the operating system writes the pages back, so even a
+ * killed process loses nothing. When the journal fills up, the whole state is written as a compact
+ * snapshot and the journal starts over; recovery loads the snapshot and replays the few records
+ * written after it.
+ * @author group 16
+ */
+public class RunJournal implements ArenaListener {
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    private static final int MAGIC       = 0x16A7E0A2; // changes with the snapshot format
+    private static final int HEADER_SIZE = 8; // magic + epoch
+
+    // Record types (0 marks the end of the journal)
+    private static final byte CELL       = 1; // flag, x, y, value
+    private static final byte MOVE       = 2; // x, y, heading
+    private static final byte COUNTERS   = 3; // victims recovered, critical victims found
+    private static final byte REMEMBERED = 4; // x, y
+    private static final byte RUN        = 5; // possible victims, critical, non critical, obstacles
+    private static final int MAX_RECORD  = 1 + 24;
+
+    /**
+     * Run state (apart from the arena itself) kept by the journal.
+     * @author group 16
+     */
+    public static class State {
+        public int x;
+        public int y;
+        public float heading;
+        public int victimsRecovered;
+        public int criticalVictimsFound;
+        public int possibleVictimCount;
+        public int criticalVictimCount;
+        public int nonCriticalVictimCount;
+        public int obstacleCount;
+        public final List<int[]> rememberedVictims = new ArrayList<int[]>();
+        /** Cells whose victim flag was recovered (index x * arena height + y) */
+        public final Set<Integer> victimCells = new HashSet<Integer>();
+
+        /**
+         * Returns whether the journal knows the victim flag of a cell (found or resolved).
+         * @param arena
+         * @param x
+         * @param y
+         */
+        public boolean hasVictimState(Arena arena, int x, int y) {
+            return victimCells.contains(x * arena.HEIGHT + y);
+        }
+    }
+
+    private final Arena arena;
+    private final File snapshotFile;
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+    private final State state = new State();
+    private int epoch;
+
+    /**
+     * Opens (or creates) the journal kept in the given directory.
+     * @param directory
+     * @param arena Arena the journal records and recovers
+     * @param capacity Size of the mapped journal in bytes
+     * @throws IOException
+     */
+    public RunJournal(File directory, Arena arena, int capacity) throws IOException {
+        directory.mkdirs();
+        this.arena = arena;
+        this.snapshotFile = new File(directory, "run.snapshot");
+        this.file = new RandomAccessFile(new File(directory, "run.journal"), "rw");
+        this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    public RunJournal(File directory, Arena arena) throws IOException {
+        this(directory, arena, DEFAULT_CAPACITY);
+    }
+
+    /************************/
+    //       Recovery       //
+    /************************/
+
+    /**
+     * Restores the arena and the run state from the last snapshot and the journal after it,
+     * then starts journaling the arena changes.
+     * Must be called once, before the run starts.
+     * @return Recovered state, null if there was no run to resume
+     * @throws IOException
+     */
+    public State recover() throws IOException {
+        boolean found = readSnapshot();
+
+        if (buffer.getInt(0) == MAGIC && buffer.getInt(4) == epoch) {
+            buffer.position(HEADER_SIZE);
+            while (buffer.remaining() >= MAX_RECORD && buffer.get(buffer.position()) != 0) {
+                replay();
+                found = true;
+            }
+        } else {
+            reset();
+        }
+
+        arena.addListener(this);
+        return found ? state : null;
+    }
+
+    private boolean readSnapshot() throws IOException {
+        if (!snapshotFile.exists())
+            return false;
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try {
+            if (in.readInt() != MAGIC)
+                return false;
+            epoch = in.readInt();
+            if (in.readInt() != arena.WIDTH || in.readInt() != arena.HEIGHT)
+                throw new IOException("Snapshot was taken on an arena of a different size");
+
+            state.x = in.readInt();
+            state.y = in.readInt();
+            state.heading = in.readFloat();
+            state.victimsRecovered = in.readInt();
+            state.criticalVictimsFound = in.readInt();
+            state.possibleVictimCount = in.readInt();
+            state.criticalVictimCount = in.readInt();
+            state.nonCriticalVictimCount = in.readInt();
+            state.obstacleCount = in.readInt();
+
+            for (int n = in.readInt(); n > 0; n--)
+                state.rememberedVictims.add(new int[] { in.readInt(), in.readInt() });
+
+            for (ArenaChange.Type type : ArenaChange.Type.values())
+                for (int n = in.readInt(); n > 0; n--) {
+                    int index = in.readInt();
+                    apply(type, index / arena.HEIGHT, index % arena.HEIGHT, true);
+                }
+
+            // cells whose victim was resolved are no longer flagged, but still known
+            for (int n = in.readInt(); n > 0; n--)
+                state.victimCells.add(in.readInt());
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void replay() {
+        byte type = buffer.get();
+        switch (type) {
+        case CELL:
+            ArenaChange.Type flag = ArenaChange.Type.values()[buffer.get()];
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            apply(flag, x, y, buffer.get() != 0);
+            break;
+        case MOVE:
+            state.x = buffer.getInt();
+            state.y = buffer.getInt();
+            state.heading = buffer.getFloat();
+            break;
+        case COUNTERS:
+            state.victimsRecovered = buffer.getInt();
+            state.criticalVictimsFound = buffer.getInt();
+            break;
+        case REMEMBERED:
+            state.rememberedVictims.add(new int[] { buffer.getInt(), buffer.getInt() });
+            break;
+        case RUN:
+            state.possibleVictimCount = buffer.getInt();
+            state.criticalVictimCount = buffer.getInt();
+            state.nonCriticalVictimCount = buffer.getInt();
+            state.obstacleCount = buffer.getInt();
+            break;
+        default:
+            throw new IllegalStateException("Corrupt run journal (record type " + type + ")");
+        }
+    }
+
+    private void apply(ArenaChange.Type type, int x, int y, boolean value) {
+        Arena.Cell cell = arena.getCell(x, y);
+        switch (type) {
+        case BLOCKED:
+            cell.setBlocked(value);
+            break;
+        case VICTIM:
+            cell.setHasVictim(value);
+            state.victimCells.add(x * arena.HEIGHT + y);
+            break;
+        case VISITED:
+            cell.setVisited(value);
+            break;
+        case HOSPITAL:
+            cell.setHospital(value);
+            break;
+        }
+    }
+
+    /************************/
+    //       Journal        //
+    /************************/
+
+    /**
+     * Starts an empty journal for the current epoch.
+     */
+    private void reset() {
+        for (int i = 0; i < buffer.capacity(); i += 8)
+            buffer.putLong(i, 0);
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, epoch);
+        buffer.position(HEADER_SIZE);
+    }
+
+    /**
+     * Makes sure a record fits, compacting the journal into a snapshot if it doesn't.
+     * The record is written by the caller after its type byte's position; the type byte is
+     * written last (commit) so a half written record is never replayed.
+     * @return position of the record's type byte
+     */
+    private int begin() {
+        if (buffer.remaining() < MAX_RECORD + 1) {
+            try {
+                writeSnapshot();
+            } catch (IOException e) {
+                throw new IllegalStateException("Run journal is full and can't be compacted", e);
+            }
+        }
+        int start = buffer.position();
+        buffer.position(start + 1);
+        return start;
+    }
+
+    private void commit(int start, byte type) {
+        buffer.put(start, type);
+    }
+
+    /**
+     * Records the arena changes published by the arena.
+     * @param changes
+     */
+    @Override
+    public synchronized void arenaChanged(List<ArenaChange> changes) {
+        for (ArenaChange change : changes) {
+            int start = begin();
+            buffer.put((byte) change.type.ordinal());
+            buffer.putInt(change.x);
+            buffer.putInt(change.y);
+            buffer.put((byte) (change.value ? 1 : 0));
+            commit(start, CELL);
+
+            if (change.type == ArenaChange.Type.VICTIM)
+                state.victimCells.add(change.x * arena.HEIGHT + change.y);
+        }
+    }
+
+    public synchronized void recordMove(int x, int y, float heading) {
+        state.x = x;
+        state.y = y;
+        state.heading = heading;
+
+        int start = begin();
+        buffer.putInt(x);
+        buffer.putInt(y);
+        buffer.putFloat(heading);
+        commit(start, MOVE);
+    }
+
+    public synchronized void recordCounters(int victimsRecovered, int criticalVictimsFound) {
+        state.victimsRecovered = victimsRecovered;
+        state.criticalVictimsFound = criticalVictimsFound;
+
+        int start = begin();
+        buffer.putInt(victimsRecovered);
+        buffer.putInt(criticalVictimsFound);
+        commit(start, COUNTERS);
+    }
+
+    public synchronized void recordRememberedVictim(int x, int y) {
+        state.rememberedVictims.add(new int[] { x, y });
+
+        int start = begin();
+        buffer.putInt(x);
+        buffer.putInt(y);
+        commit(start, REMEMBERED);
+    }
+
+    public synchronized void recordRun(int possibleVictims, int criticalVictims, int nonCriticalVictims, int obstacles) {
+        state.possibleVictimCount = possibleVictims;
+        state.criticalVictimCount = criticalVictims;
+        state.nonCriticalVictimCount = nonCriticalVictims;
+        state.obstacleCount = obstacles;
+
+        int start = begin();
+        buffer.putInt(possibleVictims);
+        buffer.putInt(criticalVictims);
+        buffer.putInt(nonCriticalVictims);
+        buffer.putInt(obstacles);
+        commit(start, RUN);
+    }
+
+    /************************/
+    //      Snapshots       //
+    /************************/
+
+    /**
+     * Writes the whole state as a snapshot of the next epoch and empties the journal.
+     * The snapshot replaces the old one atomically (rename); a journal left over from the old
+     * epoch is ignored by recovery, so a crash at any point leaves a consistent state.
+     * @throws IOException
+     */
+    public synchronized void writeSnapshot() throws IOException {
+        Arena view = arena.snapshot();
+        File temp = new File(snapshotFile.getPath() + ".tmp");
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(epoch + 1);
+            out.writeInt(view.WIDTH);
+            out.writeInt(view.HEIGHT);
+
+            out.writeInt(state.x);
+            out.writeInt(state.y);
+            out.writeFloat(state.heading);
+            out.writeInt(state.victimsRecovered);
+            out.writeInt(state.criticalVictimsFound);
+            out.writeInt(state.possibleVictimCount);
+            out.writeInt(state.criticalVictimCount);
+            out.writeInt(state.nonCriticalVictimCount);
+            out.writeInt(state.obstacleCount);
+
+            out.writeInt(state.rememberedVictims.size());
+            for (int[] cell : state.rememberedVictims) {
+                out.writeInt(cell[0]);
+                out.writeInt(cell[1]);
+            }
+
+            // one list of cell indices per flag (in ArenaChange.Type order)
+            int size = view.WIDTH * view.HEIGHT;
+            for (ArenaChange.Type type : ArenaChange.Type.values()) {
+                List<Integer> indices = new ArrayList<Integer>();
+                for (int i = 0; i < size; i++) {
+                    Arena.Cell cell = view.getCell(i);
+                    boolean set = type == ArenaChange.Type.BLOCKED ? cell.isBlocked()
+                            : type == ArenaChange.Type.VICTIM ? cell.hasVictim()
+                            : type == ArenaChange.Type.VISITED ? cell.isVisited()
+                            : cell.isHospital();
+                    if (set)
+                        indices.add(i);
+                }
+                out.writeInt(indices.size());
+                for (int index : indices)
+                    out.writeInt(index);
+            }
+
+            out.writeInt(state.victimCells.size());
+            for (int index : state.victimCells)
+                out.writeInt(index);
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(snapshotFile)) {
+            snapshotFile.delete();
+            if (!temp.renameTo(snapshotFile))
+                throw new IOException("Could not replace " + snapshotFile);
+        }
+
+        epoch++;
+        reset();
+    }
+
+    /**
+     * Flushes the journal to disk and closes it.
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        arena.removeListener(this);
+        buffer.force();
+        file.close();
+    }
+
+    /**
+     * Deletes the journal and snapshot of a run that completed, so the next start is a fresh run.
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException {
+        epoch++;
+        reset();
+        snapshotFile.delete();
+    }
+}
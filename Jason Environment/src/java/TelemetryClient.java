@@ -0,0 +1,152 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+/**
+ * Subscribes to the telemetry stream of the Ev3 Brick and hands every sample to the listeners.
+ * The stream runs on its own connection, so reading the robot's state never waits behind a command.
+ * A lost stream is subscribed to again, with backoff, until the client is closed.
+ * @author group 16
+ */
+public class TelemetryClient {
+    public static final int DEFAULT_PORT = 1235;
+
+    private Logger logger;
+    private String serverIp;
+    private int serverPort;
+    private int period;
+
+    private volatile Socket socket;
+    private volatile boolean closed;
+    private Thread reader;
+    private volatile Protocol.Telemetry latest;
+    private final CopyOnWriteArrayList<TelemetryListener> listeners = new CopyOnWriteArrayList<TelemetryListener>();
+
+    /**
+     * @param serverIp
+     * @param serverPort
+     * @param period Time between two samples (ms)
+     * @param logger
+     */
+    public TelemetryClient(String serverIp, int serverPort, int period, Logger logger) {
+        this.logger     = logger;
+        this.serverIp   = serverIp;
+        this.serverPort = serverPort;
+        this.period     = period;
+    }
+
+    public void addListener(TelemetryListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TelemetryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the last sample received, null before the first one.
+     */
+    public Protocol.Telemetry getLatest() {
+        return latest;
+    }
+
+    /**
+     * Connects to the telemetry port and starts reading the stream.
+     * @throws IOException if the brick doesn't stream telemetry
+     */
+    public void connect() throws IOException {
+        final DataInputStream first = subscribe();
+
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DataInputStream in = first;
+                Backoff backoff = new Backoff(Client.BACKOFF_BASE, Client.BACKOFF_CAP);
+
+                while (!closed) {
+                    try {
+                        if (in == null)
+                            in = subscribe();
+                        backoff.reset();
+
+                        while (true) {
+                            Protocol.Telemetry telemetry = new Protocol.Telemetry();
+                            Protocol.readTelemetry(in, telemetry);
+                            latest = telemetry;
+
+                            for (TelemetryListener listener : listeners)
+                                listener.telemetryReceived(telemetry);
+                        }
+                    } catch (IOException e) {
+                        if (closed)
+                            return;
+                        if (in != null)
+                            logger.warning("Telemetry stream lost: " + e.getMessage());
+                        in = null;
+                        close(socket);
+                    }
+
+                    try {
+                        backoff.pause();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "ev3-telemetry");
+        reader.setDaemon(true);
+        reader.start();
+
+        logger.info("Subscribed to the Ev3 Brick telemetry every " + period + "ms.");
+    }
+
+    /**
+     * Opens the telemetry connection and asks for the stream.
+     * @return Input of the stream
+     * @throws IOException
+     */
+    private DataInputStream subscribe() throws IOException {
+        Socket socket = new Socket();
+        this.socket = socket;
+        socket.connect(new InetSocketAddress(serverIp, serverPort), 2000);
+        socket.setTcpNoDelay(true);
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+        out.writeInt(Protocol.MAGIC);
+        out.writeByte(Protocol.VERSION);
+        out.writeInt(period);
+        out.flush();
+
+        if (in.readInt() != Protocol.MAGIC || Protocol.readHelloVersion(in) != Protocol.VERSION) {
+            socket.close();
+            throw new IOException("Unexpected telemetry handshake from the Ev3 Brick");
+        }
+
+        return in;
+    }
+
+    private void close(Socket socket) {
+        try {
+            if (socket != null)
+                socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Clean up method.
+     */
+    public void close() {
+        closed = true;
+        close(socket);
+    }
+}
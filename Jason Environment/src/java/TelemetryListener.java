@@ -0,0 +1,12 @@
+/**
+ * Receives the telemetry streamed by the Ev3 Brick.
+ * Samples are delivered on the telemetry reader thread, so listeners must be quick and thread safe.
+ * @author group 16
+ */
+public interface TelemetryListener {
+    /**
+     * Called with every sample received, in order. The sample is not reused.
+     * @param telemetry
+     */
+    void telemetryReceived(Protocol.Telemetry telemetry);
+}